@@ -24,7 +24,8 @@
 /**
  * Configuration for a client.
  *
- * Currently, the configuration properties are all related to security and
+ * Apart from the connection pool settings, the configuration properties
+ * are all related to security and
  * authentication.  Which, if any, of the properties are required depends on
  * the particular security mechanisms used by the server the client
  * is intended to use.  The currently supported mechanisms are login/password
@@ -47,4 +48,12 @@ public class ClientConfig {
 	 * @return Credentials for the client.
 	 */
 	private BasicAuthConfig creds;
+	/**
+	 * Connection pool configuration for the client.
+	 * If null, the defaults are used.
+	 *
+	 * @param pool Connection pool configuration for the client.
+	 * @return Connection pool configuration for the client.
+	 */
+	private PoolConfig pool;
 }
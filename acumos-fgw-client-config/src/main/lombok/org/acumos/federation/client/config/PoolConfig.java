@@ -0,0 +1,79 @@
+/*-
+ * ===============LICENSE_START=======================================================
+ * Acumos
+ * ===================================================================================
+ * Copyright (C) 2019 AT&T Intellectual Property & Tech Mahindra. All rights reserved.
+ * ===================================================================================
+ * This Acumos software file is distributed by AT&T and Tech Mahindra
+ * under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ===============LICENSE_END=========================================================
+ */
+package org.acumos.federation.client.config;
+
+import lombok.Data;
+
+/**
+ * Configuration for a client's pool of HTTP connections.
+ *
+ * Timeouts of 0 mean wait forever.  The defaults allow a modest number
+ * of concurrent requests to a single server and close connections that
+ * have been idle for a minute.
+ */
+@Data
+public class PoolConfig {
+	/**
+	 * The maximum number of open connections, across all servers.
+	 *
+	 * @param maxTotal The number of connections.
+	 * @return The number of connections.
+	 */
+	private int maxTotal = 50;
+	/**
+	 * The maximum number of open connections to any one server.
+	 *
+	 * @param maxPerRoute The number of connections.
+	 * @return The number of connections.
+	 */
+	private int maxPerRoute = 10;
+	/**
+	 * How long, in milliseconds, to wait for a connection to be
+	 * established.
+	 *
+	 * @param connectTimeout The time in milliseconds.
+	 * @return The time in milliseconds.
+	 */
+	private int connectTimeout = 30000;
+	/**
+	 * How long, in milliseconds, to wait for data from an established
+	 * connection.
+	 *
+	 * @param readTimeout The time in milliseconds.
+	 * @return The time in milliseconds.
+	 */
+	private int readTimeout;
+	/**
+	 * How long, in seconds, a connection may be reused before it is
+	 * closed.  0 means no limit.
+	 *
+	 * @param timeToLive The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int timeToLive;
+	/**
+	 * How long, in seconds, a connection may sit idle in the pool
+	 * before it is closed.  0 means idle connections are kept.
+	 *
+	 * @param idleTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int idleTimeout = 60;
+}
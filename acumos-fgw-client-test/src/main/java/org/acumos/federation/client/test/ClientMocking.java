@@ -19,6 +19,7 @@
  */
 package org.acumos.federation.client.test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.util.Base64;
@@ -34,7 +35,10 @@
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
 import org.apache.http.protocol.HttpContext;
@@ -113,6 +117,8 @@ public void close() throws IOException {
 	public static class RequestInfo {
 		private HttpUriRequest req;
 		private String line;
+		private boolean read;
+		private byte[] body;
 
 		/**
 		 * Collect information on a request.
@@ -167,6 +173,40 @@ public boolean lacksHeader(String name) {
 		public boolean lacksHeaderValue(String name, String value) {
 			return req.getFirstHeader(name) == null || !value.equals(req.getFirstHeader(name).getValue());
 		}
+
+		/**
+		 * Get the length of the body of the request, as it would be
+		 * sent in the Content-Length header.
+		 *
+		 * @return The length, or -1 if the request has no body, or its body is sent chunked.
+		 */
+		public long getContentLength() {
+			if (!(req instanceof HttpEntityEnclosingRequest) || ((HttpEntityEnclosingRequest)req).getEntity() == null) {
+				return -1;
+			}
+			return ((HttpEntityEnclosingRequest)req).getEntity().getContentLength();
+		}
+
+		/**
+		 * Get the body of the request.
+		 *
+		 * Request bodies that are streamed are written the first time
+		 * this is called.
+		 *
+		 * @return The body, or null if the request has none.
+		 * @throws IOException If the body can't be written.
+		 */
+		public byte[] getBody() throws IOException {
+			if (!read) {
+				read = true;
+				if (req instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest)req).getEntity() != null) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					((HttpEntityEnclosingRequest)req).getEntity().writeTo(out);
+					body = out.toByteArray();
+				}
+			}
+			return body;
+		}
 	}
 
 	private static class Response {
@@ -176,6 +216,7 @@ private static class Response {
 		private int code = 200;
 		private String message = "OK";
 		private ContentType contentType = ContentType.APPLICATION_JSON;
+		private ArrayList<Header> headers = new ArrayList<>();
 	}
 
 	private static Predicate<RequestInfo> s2p(String line) {
@@ -184,6 +225,7 @@ private static Predicate<RequestInfo> s2p(String line) {
 
 	private ArrayList<Response> responses;
 	private HttpClient client;
+	private boolean streaming;
 
 	/**
 	 * Create a responder to handle requests.
@@ -201,7 +243,25 @@ public ClientMocking() throws IOException {
 	 * @return This responder.
 	 */
 	public ClientMocking applyTo(RestTemplate template) {
-		template.setRequestFactory(new HttpComponentsClientHttpRequestFactory(client));
+		HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(client);
+		factory.setBufferRequestBody(!streaming);
+		template.setRequestFactory(factory);
+		return this;
+	}
+
+	/**
+	 * Have templates, redirected to this responder, stream request
+	 * bodies, rather than holding them in memory first, so the
+	 * Content-Length of a request is the one set by the client, or
+	 * absent, for a chunked request.  Like a real server, this
+	 * responder reads each request body before responding, so errors
+	 * writing the body fail the request.  Must be called before
+	 * applyTo.
+	 *
+	 * @return This responder.
+	 */
+	public ClientMocking streamRequestBodies() {
+		streaming = true;
 		return this;
 	}
 
@@ -230,6 +290,9 @@ public ClientMocking applyTo(Object object) {
 	@Override
 	public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
 		RequestInfo info = new RequestInfo((HttpUriRequest)invocation.getArguments()[0]);
+		if (streaming) {
+			info.getBody();
+		}
 		for (Response r: responses) {
 			if (r.matcher.test(info)) {
 				if (r.action != null) {
@@ -243,6 +306,9 @@ public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
 						ret.addHeader("Content-Type", r.contentType.toString());
 					}
 				}
+				for (Header header: r.headers) {
+					ret.addHeader(header);
+				}
 				if (log.isInfoEnabled()) {
 					log.info("Mock client response to {} is {}", info.getLine(), (r.body == null? "null": new String(r.body)));
 				}
@@ -319,6 +385,18 @@ public ClientMocking on(String line, String body, ContentType type) {
 		return on(line, body, type, null);
 	}
 
+	/**
+	 * Add a header to the response to the most recently specified requests.
+	 *
+	 * @param name The name of the header.
+	 * @param value The value of the header.
+	 * @return This responder.
+	 */
+	public ClientMocking withHeader(String name, String value) {
+		responses.get(responses.size() - 1).headers.add(new BasicHeader(name, value));
+		return this;
+	}
+
 	/**
 	 * Fail the specified requests.
 	 *
@@ -19,8 +19,8 @@
  */
 package org.acumos.federation.client;
 
+import java.io.EOFException;
 import java.io.FileInputStream;
-import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
@@ -29,16 +29,33 @@
 import java.net.URI;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.ssl.SSLContexts;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
@@ -48,19 +65,23 @@
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.DefaultResourceLoader;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.ResourceHttpMessageConverter;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
@@ -73,6 +94,7 @@
 import org.acumos.cds.domain.MLPDocument;
 
 import org.acumos.federation.client.config.ClientConfig;
+import org.acumos.federation.client.config.PoolConfig;
 import org.acumos.federation.client.config.TlsConfig;
 import org.acumos.federation.client.config.BasicAuthConfig;
 import org.acumos.federation.client.data.JsonResponse;
@@ -147,6 +169,9 @@ public ObjectMapper build() {
 	}
 
 	private static ObjectMapper defaultMapper = new MapperBuilder().build();
+	private static final long EVICTION_INTERVAL = 5;
+	private static final Map<PoolingHttpClientConnectionManager, Integer> idlePools = new WeakHashMap<>();
+	private static ScheduledExecutorService evictor;
 
 	/**
 	 * Get the current default mapper.
@@ -173,6 +198,55 @@ public static void setDefaultMapper(ObjectMapper mapper) {
 	 */
 	protected RestTemplate restTemplate;
 
+	/*
+	 * The most bytes of JSON responses, with entity tags, to remember
+	 * so they can be revalidated, instead of fetched again, the next
+	 * time they are asked for, and the largest single response worth
+	 * remembering.  Each peer gets its own client, so this bounds what
+	 * each peer costs.
+	 */
+	private static final long MAX_VALIDATED_BYTES = 4L * 1024 * 1024;
+	private static final long MAX_VALIDATED_BODY = 1024 * 1024;
+
+	private static class Validated {
+		private String etag;
+		private byte[] body;
+
+		public Validated(String etag, byte[] body) {
+			this.etag = etag;
+			this.body = body;
+		}
+	}
+
+	private Map<URI, Validated> validated = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long validatedBytes;
+
+	private synchronized Validated getValidated(URI url) {
+		return validated.get(url);
+	}
+
+	/*
+	 * Remember, or with null, forget, the response for a URL, then
+	 * forget the least recently used responses until the rest fit.
+	 */
+	private synchronized void setValidated(URI url, Validated entry) {
+		Validated old = validated.remove(url);
+		if (old != null) {
+			validatedBytes -= old.body.length;
+		}
+		if (entry == null || entry.body.length > MAX_VALIDATED_BODY) {
+			return;
+		}
+		validated.put(url, entry);
+		validatedBytes += entry.body.length;
+		Iterator<Validated> eldest = validated.values().iterator();
+		while (validatedBytes > MAX_VALIDATED_BYTES) {
+			validatedBytes -= eldest.next().body.length;
+			eldest.remove();
+		}
+	}
+
 	private static InputStream openResource(ResourceLoader loader, String source) throws IOException {
 		try {
 			return loader.getResource(source).getURL().openStream();
@@ -193,34 +267,26 @@ private static KeyStore getKeyStore(ResourceLoader loader, String store, String
 	}
 
 	/**
-	 * Build a RestTemplate for a client.
+	 * Build an HttpClient for a client.
 	 *
-	 * If mapper is null, the default mapper is used.
+	 * The HttpClient, and its pool of connections, can be shared by
+	 * clients for different servers, that use the same certificates,
+	 * by passing it to {@link #buildRestTemplate(String, HttpClient, ClientConfig, ObjectMapper)}.
 	 * If loader is null, a DefaultResourceLoader is created and used.
 	 * The loader is used for accessing the key store and trust store
 	 * for TLS certificates.
 	 *
-	 * @param target The base URL for the server to be accessed.
-	 * @param conf The configuration for certificates and credentials.
-	 * @param mapper The object mapper.
+	 * @param conf The configuration for certificates and the connection pool.
 	 * @param loader The resource loader.
-	 * @return A RestTemplate for the supplied parameters.
+	 * @return An HttpClient for the supplied parameters.
 	 */
-	public static RestTemplate buildRestTemplate(String target, ClientConfig conf, ObjectMapper mapper, ResourceLoader loader) {
-		try {
-			target = new URL(target).toExternalForm().replaceAll("/*$", "");
-		} catch (MalformedURLException mue) {
-			throw new IllegalArgumentException("Bad target URL " + target, mue);
-		}
+	public static HttpClient buildHttpClient(ClientConfig conf, ResourceLoader loader) {
 		if (loader == null) {
 			loader = new DefaultResourceLoader();
 		}
-		if (mapper == null) {
-			mapper = getDefaultMapper();
-		}
 		SSLContextBuilder sslContextBuilder = SSLContexts.custom();
 		TlsConfig tls = conf.getSsl();
-		HttpClientBuilder clientBuilder = HttpClients.custom();
+		SSLConnectionSocketFactory sslSocketFactory;
 		try {
 			if (tls != null) {
 				KeyStore store = getKeyStore(loader, tls.getKeyStore(), tls.getKeyStoreType(), tls.getKeyStorePassword());
@@ -233,12 +299,125 @@ public static RestTemplate buildRestTemplate(String target, ClientConfig conf, O
 					sslContextBuilder.loadTrustMaterial(store, null);
 				}
 			}
-			SSLConnectionSocketFactory sslSocketFactory = new SSLConnectionSocketFactory(sslContextBuilder.build(), new String[] { "TLSv1.2" }, null, SSLConnectionSocketFactory.getDefaultHostnameVerifier());
-			clientBuilder.setSSLSocketFactory(sslSocketFactory);
+			sslSocketFactory = new SSLConnectionSocketFactory(sslContextBuilder.build(), new String[] { "TLSv1.2" }, null, SSLConnectionSocketFactory.getDefaultHostnameVerifier());
 		} catch (Exception ex) {
 			throw new TlsConfigException("Invalid TLS configuration", ex);
 		}
-		HttpClient client = clientBuilder.build();
+		PoolConfig pool = conf.getPool();
+		if (pool == null) {
+			pool = new PoolConfig();
+		}
+		PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(
+		    RegistryBuilder.<ConnectionSocketFactory>create()
+			.register("http", PlainConnectionSocketFactory.getSocketFactory())
+			.register("https", sslSocketFactory)
+			.build(),
+		    null, null, null, pool.getTimeToLive() > 0? pool.getTimeToLive(): -1, TimeUnit.SECONDS);
+		manager.setMaxTotal(pool.getMaxTotal());
+		manager.setDefaultMaxPerRoute(pool.getMaxPerRoute());
+		if (pool.getIdleTimeout() > 0) {
+			evictIdleConnections(manager, pool.getIdleTimeout());
+		}
+		return HttpClients.custom()
+		    .setConnectionManager(manager)
+		    .setDefaultRequestConfig(RequestConfig.custom()
+			.setConnectTimeout(pool.getConnectTimeout())
+			.setSocketTimeout(pool.getReadTimeout())
+			.build())
+		    .build();
+	}
+
+	/*
+	 * Periodically close connections that have been idle too long,
+	 * in pools that are still in use.  A single daemon thread serves
+	 * every pool, and pools drop out once their clients are discarded,
+	 * so clients built for one-off requests do not leak threads.
+	 */
+	private static synchronized void evictIdleConnections(PoolingHttpClientConnectionManager manager, int idleTimeout) {
+		if (evictor == null) {
+			evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "acumos-fgw-client-evictor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			evictor.scheduleWithFixedDelay(ClientBase::evictIdleConnections, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.SECONDS);
+		}
+		idlePools.put(manager, idleTimeout);
+	}
+
+	private static synchronized void evictIdleConnections() {
+		idlePools.forEach((manager, idleTimeout) -> {
+			manager.closeExpiredConnections();
+			manager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+		});
+	}
+
+	/*
+	 * Adds credentials to each request as it is created, rather than
+	 * with an interceptor, since interceptors hold the whole body of
+	 * each request in memory.
+	 */
+	private static class AuthorizingRestTemplate extends RestTemplate {
+		private String username;
+		private String password;
+
+		public AuthorizingRestTemplate(String username, String password) {
+			this.username = username;
+			this.password = password;
+		}
+
+		public void authorize(ClientHttpRequest request) {
+			request.getHeaders().setBasicAuth(username, password);
+		}
+
+		@Override
+		protected ClientHttpRequest createRequest(URI url, HttpMethod method) throws IOException {
+			ClientHttpRequest ret = super.createRequest(url, method);
+			authorize(ret);
+			return ret;
+		}
+	}
+
+	/**
+	 * Build a RestTemplate for a client.
+	 *
+	 * If mapper is null, the default mapper is used.
+	 * If loader is null, a DefaultResourceLoader is created and used.
+	 * The loader is used for accessing the key store and trust store
+	 * for TLS certificates.
+	 *
+	 * @param target The base URL for the server to be accessed.
+	 * @param conf The configuration for certificates and credentials.
+	 * @param mapper The object mapper.
+	 * @param loader The resource loader.
+	 * @return A RestTemplate for the supplied parameters.
+	 */
+	public static RestTemplate buildRestTemplate(String target, ClientConfig conf, ObjectMapper mapper, ResourceLoader loader) {
+		return buildRestTemplate(target, buildHttpClient(conf, loader), conf, mapper);
+	}
+
+	/**
+	 * Build a RestTemplate for a client, using an existing HttpClient.
+	 *
+	 * If mapper is null, the default mapper is used.
+	 * The certificate configuration in conf is ignored: the
+	 * HttpClient's is used, instead.
+	 *
+	 * @param target The base URL for the server to be accessed.
+	 * @param client The HttpClient.
+	 * @param conf The configuration for credentials.
+	 * @param mapper The object mapper.
+	 * @return A RestTemplate for the supplied parameters.
+	 */
+	public static RestTemplate buildRestTemplate(String target, HttpClient client, ClientConfig conf, ObjectMapper mapper) {
+		try {
+			target = new URL(target).toExternalForm().replaceAll("/*$", "");
+		} catch (MalformedURLException mue) {
+			throw new IllegalArgumentException("Bad target URL " + target, mue);
+		}
+		if (mapper == null) {
+			mapper = getDefaultMapper();
+		}
 		BasicAuthConfig creds = conf.getCreds();
 		MappingJackson2HttpMessageConverter messageConverter = new MappingJackson2HttpMessageConverter();
 		messageConverter.setObjectMapper(mapper);
@@ -252,7 +431,7 @@ public static RestTemplate buildRestTemplate(String target, ClientConfig conf, O
 		    .uriTemplateHandler(new DefaultUriBuilderFactory())
 		    .rootUri(target);
 		if (creds != null && creds.getUsername() != null && creds.getPassword() != null) {
-			rtb = rtb.basicAuthentication(creds.getUsername(), creds.getPassword());
+			return rtb.configure(new AuthorizingRestTemplate(creds.getUsername(), creds.getPassword()));
 		}
 		return rtb.build();
 	}
@@ -274,6 +453,20 @@ protected ClientBase(String target, ClientConfig conf, ObjectMapper mapper, Reso
 		restTemplate = buildRestTemplate(target, conf, mapper, loader);
 	}
 
+	/**
+	 * Create a client, using an existing HttpClient.
+	 *
+	 * If mapper is null, the default mapper is used.
+	 *
+	 * @param target The base URL for the server to be accessed.
+	 * @param client The HttpClient.
+	 * @param conf The configuration for credentials.
+	 * @param mapper The object mapper.
+	 */
+	protected ClientBase(String target, HttpClient client, ClientConfig conf, ObjectMapper mapper) {
+		restTemplate = buildRestTemplate(target, client, conf, mapper);
+	}
+
 	/**
 	 * Execute a REST transaction.
 	 *
@@ -286,6 +479,27 @@ protected <T> T handle(String uri, HttpMethod method, ParameterizedTypeReference
 		return restTemplate.exchange(uri, method, null, type, params).getBody();
 	}
 
+	/**
+	 * Execute a REST transaction, writing the request body as it is
+	 * sent, rather than holding it in memory first.
+	 *
+	 * @param url The URL of the request.
+	 * @param method The HTTP method.
+	 * @param headers Headers to send with the request.
+	 * @param body Writes the body of the request.
+	 * @return The headers of the response.
+	 */
+	protected HttpHeaders stream(URI url, HttpMethod method, HttpHeaders headers, StreamingHttpOutputMessage.Body body) {
+		return restTemplate.execute(url, method, request -> {
+			request.getHeaders().putAll(headers);
+			if (request instanceof StreamingHttpOutputMessage) {
+				((StreamingHttpOutputMessage)request).setBody(body);
+			} else {
+				body.writeTo(request.getBody());
+			}
+		}, response -> response.getHeaders());
+	}
+
 	/**
 	 * Execute a REST transaction and unwrap the response, returning its content.
 	 *
@@ -295,10 +509,46 @@ protected <T> T handle(String uri, HttpMethod method, ParameterizedTypeReference
 	 * @param params Values for parameters in the target and uri.
 	 */
 	protected <T> T handleResponse(String uri, HttpMethod method, ParameterizedTypeReference<JsonResponse<T>> type, Object ... params) {
-		JsonResponse<T> ret = handle(uri, method, type, params);
+		JsonResponse<T> ret = method == HttpMethod.GET? handleValidated(uri, type, params): handle(uri, method, type, params);
 		return ret == null? null: ret.getContent();
 	}
 
+	/*
+	 * Execute a REST GET transaction, remembering the response, if the
+	 * server tagged it, so the next time it is asked for, the server
+	 * can just confirm it hasn't changed, with 304 (Not Modified).
+	 * The body is parsed again each time, since callers may modify
+	 * what they get.
+	 */
+	private <T> T handleValidated(String uri, ParameterizedTypeReference<T> type, Object ... params) {
+		URI url = restTemplate.getUriTemplateHandler().expand(uri, params);
+		Validated known = getValidated(url);
+		ObjectMapper reader = getMapper();
+		return restTemplate.execute(url, HttpMethod.GET, request -> {
+			request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+			if (known != null) {
+				request.getHeaders().setIfNoneMatch(known.etag);
+			}
+		}, response -> {
+			byte[] body;
+			if (known != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+				body = known.body;
+			} else {
+				body = StreamUtils.copyToByteArray(response.getBody());
+				String etag = response.getHeaders().getETag();
+				if (etag != null && body.length != 0) {
+					setValidated(url, new Validated(etag, body));
+				} else if (known != null) {
+					setValidated(url, null);
+				}
+			}
+			if (body.length == 0) {
+				return null;
+			}
+			return reader.readValue(body, reader.getTypeFactory().constructType(type.getType()));
+		});
+	}
+
 	/**
 	 * Execute a REST GET transaction and unwrap the response, returning its content.
 	 *
@@ -310,40 +560,324 @@ protected <T> T handleResponse(String uri, ParameterizedTypeReference<JsonRespon
 		return handleResponse(uri, HttpMethod.GET, type, params);
 	}
 
+	/*
+	 * The mapper this client uses for parsing JSON responses.
+	 */
+	private ObjectMapper getMapper() {
+		ObjectMapper ret = getDefaultMapper();
+		for (HttpMessageConverter<?> converter: restTemplate.getMessageConverters()) {
+			if (converter instanceof MappingJackson2HttpMessageConverter) {
+				ret = ((MappingJackson2HttpMessageConverter)converter).getObjectMapper();
+			}
+		}
+		return ret;
+	}
+
+	/*
+	 * Iterates over a paged list, fetching the next page only when
+	 * the current one has been used up.  A response without paging
+	 * information is the whole list.
+	 */
+	private class PageIterator<T> implements Iterator<T> {
+		private String uri;
+		private ParameterizedTypeReference<JsonResponse<List<T>>> type;
+		private Object[] params;
+		private int page;
+		private boolean last;
+		private Iterator<T> current = Collections.emptyIterator();
+
+		public PageIterator(String uri, ParameterizedTypeReference<JsonResponse<List<T>>> type, int size, Object ... params) {
+			this.uri = uri;
+			this.type = type;
+			this.params = Arrays.copyOf(params, params.length + 2);
+			this.params[params.length + 1] = size;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!current.hasNext() && !last) {
+				params[params.length - 2] = page++;
+				JsonResponse<List<T>> response = handleValidated(uri, type, params);
+				List<T> content = response == null? null: response.getContent();
+				last = content == null || content.isEmpty() || !Boolean.FALSE.equals(response.getLast());
+				if (content != null) {
+					current = content.iterator();
+				}
+			}
+			return current.hasNext();
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+	}
+
+	/**
+	 * Execute REST GET transactions, a page at a time, as needed, to
+	 * iterate over a paged list.
+	 *
+	 * The uri must end with parameters for the page number and
+	 * page size, in that order.
+	 *
+	 * @param uri The URI relative, to this client's target.
+	 * @param type The wire type of each page of the response.
+	 * @param size The page size.
+	 * @param params Values for the other parameters in the target and uri.
+	 * @return An iterator over the list.
+	 */
+	protected <T> Iterator<T> handlePages(String uri, ParameterizedTypeReference<JsonResponse<List<T>>> type, int size, Object ... params) {
+		return new PageIterator<T>(uri, type, size, params);
+	}
+
+	/**
+	 * Execute a REST GET transaction whose response content is a list,
+	 * and perform an action on each element of the list, as it is
+	 * received, without holding the whole list in memory.
+	 *
+	 * @param uri The URI relative, to this client's target.
+	 * @param type The type of the elements of the list.
+	 * @param action The action to perform on each element.
+	 * @param params Values for parameters in the target and uri.
+	 */
+	protected <T> void handleEach(String uri, Class<T> type, Consumer<? super T> action, Object ... params) {
+		ObjectMapper reader = getMapper();
+		restTemplate.execute(uri, HttpMethod.GET, request -> request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON)), response -> {
+			try (JsonParser parser = reader.getFactory().createParser(response.getBody())) {
+				JsonToken token = parser.nextToken();
+				if (token == null) {
+					return null;
+				}
+				if (token != JsonToken.START_OBJECT) {
+					throw new JsonParseException(parser, "Expected a JSON object");
+				}
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					if (parser.nextToken() == JsonToken.START_ARRAY && "content".equals(field)) {
+						while (parser.nextToken() != JsonToken.END_ARRAY) {
+							action.accept(reader.readValue(parser, type));
+						}
+					} else {
+						parser.skipChildren();
+					}
+				}
+			}
+			return null;
+		}, params);
+	}
+
+	/*
+	 * The number of times, in a row, to try resuming a download
+	 * without receiving any more data, before giving up.
+	 */
+	private static final int MAX_RESUME_ATTEMPTS = 3;
+
+	private ClientHttpResponse open(URI url, long offset, String validator) throws IOException {
+		ClientHttpResponse response = null;
+		try { // NOSONAR
+			ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(url, HttpMethod.GET);
+			if (restTemplate instanceof AuthorizingRestTemplate) {
+				((AuthorizingRestTemplate)restTemplate).authorize(request);
+			}
+			ResponseErrorHandler errHandler = restTemplate.getErrorHandler();
+			request.getHeaders().setAccept(Collections.singletonList(MediaType.ALL));
+			if (offset != 0) {
+				request.getHeaders().setRange(Collections.singletonList(HttpRange.createByteRange(offset)));
+				if (validator != null) {
+					request.getHeaders().set(HttpHeaders.IF_RANGE, validator);
+				}
+			}
+			response = request.execute();
+			if (errHandler.hasError(response)) {
+				errHandler.handleError(url, HttpMethod.GET, response);
+			}
+			ClientHttpResponse ret = response;
+			response = null;
+			return ret;
+		} finally {
+			if (response != null) {
+				response.close();
+			}
+		}
+	}
+
+	/*
+	 * The strong validator (ETag or, failing that, Last-Modified time)
+	 * of a response, or null if it has none.  Weak ETags can't be used
+	 * with If-Range.
+	 */
+	private static String getValidator(ClientHttpResponse response) {
+		HttpHeaders headers = response.getHeaders();
+		String etag = headers.getETag();
+		if (etag != null) {
+			return etag.startsWith("W/")? null: etag;
+		}
+		return headers.getFirst(HttpHeaders.LAST_MODIFIED);
+	}
+
+	/*
+	 * An InputStream over the body of a download.  If reading fails
+	 * part way through, and the server identified the content, the
+	 * rest of the same content is requested, starting from the first
+	 * byte not yet read, and reading continues from the new response.
+	 * Closing the InputStream closes the response.
+	 */
+	private class ResumingInputStream extends InputStream {
+		private URI url;
+		private ClientHttpResponse response;
+		private InputStream in;
+		private long offset;
+		private String validator;
+		private int attempts;
+
+		public ResumingInputStream(URI url, ClientHttpResponse response, long offset) throws IOException {
+			this.url = url;
+			this.response = response;
+			this.in = response.getBody();
+			this.offset = offset;
+			this.validator = getValidator(response);
+		}
+
+		/*
+		 * If-Range makes the server send all the content, rather than
+		 * the rest of it, if it has changed, so resuming then fails,
+		 * rather than splicing together two different versions.
+		 */
+		private void resume(IOException failure) throws IOException {
+			response.close();
+			while (validator != null && ++attempts <= MAX_RESUME_ATTEMPTS) {
+				ClientHttpResponse next;
+				try {
+					next = open(url, offset, validator);
+				} catch (IOException | RuntimeException ex) {
+					failure.addSuppressed(ex);
+					continue;
+				}
+				String range = next.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE);
+				if (next.getStatusCode() != HttpStatus.PARTIAL_CONTENT || range == null || !range.startsWith("bytes " + offset + "-")) {
+					next.close();
+					break;
+				}
+				response = next;
+				in = next.getBody();
+				return;
+			}
+			throw failure;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buf = new byte[1];
+			int len;
+			while ((len = read(buf, 0, 1)) == 0) {
+			}
+			return len == -1? -1: buf[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException {
+			while (true) {
+				try {
+					int ret = in.read(buf, off, len);
+					if (ret > 0) {
+						offset += ret;
+						attempts = 0;
+					}
+					return ret;
+				} catch (IOException ioe) {
+					resume(ioe);
+				}
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			return in.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				in.close();
+			} finally {
+				response.close();
+			}
+		}
+	}
+
+	/*
+	 * Skip the start of content the server sent when only the rest of
+	 * it was asked for.  Closes the InputStream if that fails.
+	 */
+	private static void skip(InputStream is, long count) throws IOException {
+		try {
+			while (count > 0) {
+				long len = is.skip(count);
+				if (len <= 0) {
+					throw new EOFException("Content ended before the requested range");
+				}
+				count -= len;
+			}
+		} catch (IOException ioe) {
+			try {
+				is.close();
+			} catch (IOException ioe2) {
+				ioe.addSuppressed(ioe2);
+			}
+			throw ioe;
+		}
+	}
+
 	/**
 	 * Download potentially large binary content from the specified URL.
 	 *
+	 * If the connection fails while reading the content, and the
+	 * server supports range requests, and sends an ETag or
+	 * Last-Modified time for the content, the download is resumed
+	 * from where it failed.
+	 *
 	 * @param uri The template for the URI to download.
 	 * @param params The parameters for the template.
 	 * @return An InputStream for reading the content.
 	 */
 	protected InputStream download(String uri, Object ... params) {
-		ClientHttpResponse response = null;
+		return download(0, uri, params);
+	}
+
+	/**
+	 * Download potentially large binary content from the specified URL,
+	 * starting part way through.
+	 *
+	 * The server is asked for just the content after the offset.  If
+	 * it sends all the content instead, the content before the offset
+	 * is skipped.  Downloads are resumed, as for
+	 * {@link #download(String, Object...)}.
+	 *
+	 * @param offset The number of bytes, at the start, to leave out.
+	 * @param uri The template for the URI to download.
+	 * @param params The parameters for the template.
+	 * @return An InputStream for reading the content.
+	 */
+	protected InputStream download(long offset, String uri, Object ... params) {
 		URI url = restTemplate.getUriTemplateHandler().expand(uri, params);
+		ClientHttpResponse response = null;
 		try { // NOSONAR
 			/*
 			 * Sonar says use try-with-resources, but can't use it
 			 * here: have to leave response open when returning its
 			 * InputStream (normal case).  Returned InputStream
-			 * is wrapped in a FilterInputStream so When returned
-			 * value is closed, response will also be closed.
+			 * closes the response when it is closed.
 			 */
-			ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(url, HttpMethod.GET);
-			ResponseErrorHandler errHandler = restTemplate.getErrorHandler();
-			request.getHeaders().setAccept(Collections.singletonList(MediaType.ALL));
-			response = request.execute();
-			if (errHandler.hasError(response)) {
-				errHandler.handleError(url, HttpMethod.GET, response);
-			}
-			ClientHttpResponse xr = response;
-			InputStream ret = new FilterInputStream(xr.getBody()) {
-				@Override
-				public void close() throws IOException {
-					in.close();
-					xr.close();
-				}
-			};
+			response = open(url, offset, null);
+			boolean whole = offset != 0 && response.getStatusCode() != HttpStatus.PARTIAL_CONTENT;
+			InputStream ret = new ResumingInputStream(url, response, whole? 0: offset);
 			response = null;
+			if (whole) {
+				skip(ret, offset);
+			}
 			return ret;
 		} catch (IOException ioe) {
 			throw new ResourceAccessException("I/O error on GET request for \"" + url + "\": " + ioe.getMessage(), ioe);
@@ -354,28 +888,83 @@ public void close() throws IOException {
 		}
 	}
 
+	/*
+	 * The size of the buffer used to copy uploaded content, so memory
+	 * use stays the same, however large the content.
+	 */
+	private static final int UPLOAD_BUFFER_SIZE = 65536;
+
 	/**
 	 * Upload potentially large binary content to the specified URL.
 	 *
-	 * @param uri The template for the URI to download.
+	 * If the length of the content is known, it is sent as the
+	 * Content-Length, and the upload fails if the content turns out to
+	 * be a different length.  Otherwise, the content is sent using
+	 * chunked transfer encoding.  Either way, the content is streamed,
+	 * through a fixed size buffer, rather than being held in memory.
+	 *
+	 * @param uri The template for the URI to upload to.
 	 * @param method The method (usually POST or PUT).
+	 * @param length The length of the content, or -1 if it isn't known.
 	 * @param inputStream The data to upload.
 	 * @param params The parameters for the template.
 	 */
-	protected void upload(String uri, HttpMethod method, InputStream inputStream, Object ... params) {
+	protected void upload(String uri, HttpMethod method, long length, InputStream inputStream, Object ... params) {
 		HttpHeaders headers = new HttpHeaders();
 		headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-		restTemplate.exchange(uri, method, new HttpEntity<>(new InputStreamResource(inputStream), headers), Void.class, params);
+		if (length >= 0) {
+			headers.setContentLength(length);
+		}
+		stream(restTemplate.getUriTemplateHandler().expand(uri, params), method, headers, out -> {
+			byte[] buf = new byte[UPLOAD_BUFFER_SIZE];
+			long count = 0;
+			int len;
+			while ((len = inputStream.read(buf)) != -1) {
+				count += len;
+				if (length >= 0 && count > length) {
+					throw new IOException("Upload to " + uri + " is longer than " + length + " bytes");
+				}
+				out.write(buf, 0, len);
+			}
+			if (length >= 0 && count != length) {
+				throw new IOException("Upload to " + uri + " ended after " + count + " of " + length + " bytes");
+			}
+			out.flush();
+		});
 	}
 
 	/**
 	 * Upload (PUT) potentially large binary content to the specified URL.
 	 *
-	 * @param uri The template for the URI to download.
+	 * @param uri The template for the URI to upload to.
+	 * @param length The length of the content, or -1 if it isn't known.
+	 * @param inputStream The data to upload.
+	 * @param params The parameters for the template.
+	 */
+	protected void upload(String uri, long length, InputStream inputStream, Object ... params) {
+		upload(uri, HttpMethod.PUT, length, inputStream, params);
+	}
+
+	/**
+	 * Upload potentially large binary content, of unknown length, to the specified URL.
+	 *
+	 * @param uri The template for the URI to upload to.
+	 * @param method The method (usually POST or PUT).
+	 * @param inputStream The data to upload.
+	 * @param params The parameters for the template.
+	 */
+	protected void upload(String uri, HttpMethod method, InputStream inputStream, Object ... params) {
+		upload(uri, method, -1, inputStream, params);
+	}
+
+	/**
+	 * Upload (PUT) potentially large binary content, of unknown length, to the specified URL.
+	 *
+	 * @param uri The template for the URI to upload to.
 	 * @param inputStream The data to upload.
 	 * @param params The parameters for the template.
 	 */
 	protected void upload(String uri, InputStream inputStream, Object ... params) {
-		upload(uri, HttpMethod.PUT, inputStream, params);
+		upload(uri, HttpMethod.PUT, -1, inputStream, params);
 	}
 }
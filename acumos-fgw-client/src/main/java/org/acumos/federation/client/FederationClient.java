@@ -20,10 +20,14 @@
  */
 package org.acumos.federation.client;
 
+import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 import java.io.InputStream;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.HttpClient;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpMethod;
@@ -69,10 +73,18 @@ public class FederationClient extends ClientBase {
 	 * The base URI for listing catalog solutions.
 	 */
 	public static final String SOLUTIONS_URI = "/solutions";
+	/**
+	 * The base URI for listing changed catalog solutions.
+	 */
+	public static final String CHANGES_URI = "/changes";
 	/**
 	 * The base URI for fetching solution metadata.
 	 */
 	public static final String SOLUTION_URI = "/solutions/{solutionId}";
+	/**
+	 * The base URI for fetching a solution's picture.
+	 */
+	public static final String PICTURE_URI = "/solutions/{solutionId}/picture";
 	/**
 	 * The base URI for listing solution revisions.
 	 */
@@ -89,6 +101,14 @@ public class FederationClient extends ClientBase {
 	 * The base URI for fetching artifact content.
 	 */
 	public static final String ARTIFACT_URI = "/artifacts/{artifactId}/content";
+	/**
+	 * The base URI for fetching the manifest of a Docker image artifact.
+	 */
+	public static final String ARTIFACT_MANIFEST_URI = "/artifacts/{artifactId}/manifest";
+	/**
+	 * The base URI for fetching a layer or configuration of a Docker image artifact.
+	 */
+	public static final String ARTIFACT_BLOB_URI = "/artifacts/{artifactId}/blobs/{digest}";
 	/**
 	 * The base URI for listing revision documents.
 	 */
@@ -110,6 +130,22 @@ public class FederationClient extends ClientBase {
 	 * The query for specifying a catalog ID.
 	 */
 	public static final String CATID_QUERY = "?catalogId={catalogId}";
+	/**
+	 * The query for specifying a catalog ID and a time.
+	 */
+	public static final String CATID_SINCE_QUERY = "?catalogId={catalogId}&since={since}";
+	/**
+	 * The query for leaving the picture out of a solution.
+	 */
+	public static final String NO_PICTURE_QUERY = "?picture=false";
+	/**
+	 * The query for specifying a page of a list.
+	 */
+	public static final String PAGE_QUERY = "?page={page}&size={size}";
+	/**
+	 * The query for specifying a catalog ID and a page of a list.
+	 */
+	public static final String CATID_PAGE_QUERY = "?catalogId={catalogId}&page={page}&size={size}";
 
 	/**
 	 * The URI for sending model data from subscriber to supplier.
@@ -165,6 +201,21 @@ public FederationClient(String target, ClientConfig conf, ObjectMapper mapper, R
 		super(target, conf, mapper, loader);
 	}
 
+	/**
+	 * Create a Federation Client, using an existing HttpClient.
+	 *
+	 * @param target The base URL for the server to be accessed.
+	 * @param client The HttpClient, typically shared with clients
+	 *               for other servers.  See
+	 *               {@link ClientBase#buildHttpClient(ClientConfig, ResourceLoader)}.
+	 * @param conf The configuration for credentials.
+	 * @param mapper The object mapper.  If mapper is null, the default
+	 *               object mapper is used to read and write JSON.
+	 */
+	public FederationClient(String target, HttpClient client, ClientConfig conf, ObjectMapper mapper) {
+		super(target, client, conf, mapper);
+	}
+
 	/**
 	 * Check connectivity to the server.
 	 *
@@ -228,6 +279,16 @@ public List<MLPCatalog> getCatalogs() {
 		return handleResponse(CATALOGS_URI, new ParameterizedTypeReference<JsonResponse<List<MLPCatalog>>>(){});
 	}
 
+	/**
+	 * Iterate over the server's catalogs, fetching them a page at a time.
+	 *
+	 * @param size The maximum number of catalogs to fetch at a time.
+	 * @return An iterator over the catalogs (enhanced with their sizes), the peer is willing to share.
+	 */
+	public Iterator<MLPCatalog> iterateCatalogs(int size) {
+		return handlePages(CATALOGS_URI + PAGE_QUERY, new ParameterizedTypeReference<JsonResponse<List<MLPCatalog>>>(){}, size);
+	}
+
 	/**
 	 * Get a list of the solutions in a catalog.
 	 *
@@ -238,6 +299,52 @@ public List<MLPSolution> getSolutions(String catalogId) {
 		return handleResponse(SOLUTIONS_URI + CATID_QUERY, new ParameterizedTypeReference<JsonResponse<List<MLPSolution>>>(){}, catalogId);
 	}
 
+	/**
+	 * Perform an action on each of the solutions in a catalog.
+	 *
+	 * Unlike {@link #getSolutions(String)}, the solutions are passed to the action
+	 * as they are received, so the list is never held in memory all at once.
+	 *
+	 * @param catalogId The ID of the catalog containing the solutions.
+	 * @param action The action to perform on each solution.
+	 */
+	public void getSolutions(String catalogId, Consumer<MLPSolution> action) {
+		handleEach(SOLUTIONS_URI + CATID_QUERY, MLPSolution.class, action, catalogId);
+	}
+
+	/**
+	 * Iterate over the solutions in a catalog, fetching them a page at a time.
+	 *
+	 * Each page is only fetched when the solutions before it have been
+	 * consumed.  Peers that don't support paging send the whole list
+	 * as a single page.
+	 *
+	 * @param catalogId The ID of the catalog containing the solutions.
+	 * @param size The maximum number of solutions to fetch at a time.
+	 * @return An iterator over the solutions in the catalog.
+	 */
+	public Iterator<MLPSolution> iterateSolutions(String catalogId, int size) {
+		return handlePages(SOLUTIONS_URI + CATID_PAGE_QUERY, new ParameterizedTypeReference<JsonResponse<List<MLPSolution>>>(){}, size, catalogId);
+	}
+
+	/**
+	 * Get a list of the solutions in a catalog that have changed since a given time.
+	 *
+	 * A solution has changed if it, or any of its revisions, has
+	 * changed.  A revision has changed if it, any of its artifacts,
+	 * or its description or any of its documents, for the catalog,
+	 * were modified after the given time.  Note that solutions
+	 * recently added to the catalog, but otherwise unchanged, are
+	 * not included.
+	 *
+	 * @param catalogId The ID of the catalog containing the solutions.
+	 * @param since The time of the previous check.
+	 * @return The list of changed solutions, enhanced with their changed revisions.
+	 */
+	public List<MLPSolution> getSolutionChanges(String catalogId, Instant since) {
+		return handleResponse(CHANGES_URI + CATID_SINCE_QUERY, new ParameterizedTypeReference<JsonResponse<List<MLPSolution>>>(){}, catalogId, since.toString());
+	}
+
 	/**
 	 * Get information about a solution.
 	 *
@@ -248,6 +355,34 @@ public MLPSolution getSolution(String solutionId) {
 		return handleResponse(SOLUTION_URI, new ParameterizedTypeReference<JsonResponse<MLPSolution>>(){}, solutionId);
 	}
 
+	/**
+	 * Get information about a solution, with or without its picture.
+	 *
+	 * If picture is false, servers that support it leave out the
+	 * picture and send its digest instead.  Older servers always send
+	 * the picture and no digest.
+	 *
+	 * @param solutionId The ID of the solution.
+	 * @param picture Whether to include the picture.
+	 * @return The solution's metadata, enhanced with its revisions, and its picture or the picture's digest.
+	 */
+	public MLPSolution getSolution(String solutionId, boolean picture) {
+		if (picture) {
+			return getSolution(solutionId);
+		}
+		return handleResponse(SOLUTION_URI + NO_PICTURE_QUERY, new ParameterizedTypeReference<JsonResponse<MLPSolution>>(){}, solutionId);
+	}
+
+	/**
+	 * Get the picture for a solution.
+	 *
+	 * @param solutionId The ID of the solution.
+	 * @return The picture, or null if the solution has none.
+	 */
+	public byte[] getSolutionPicture(String solutionId) {
+		return handle(PICTURE_URI, HttpMethod.GET, new ParameterizedTypeReference<byte[]>(){}, solutionId);
+	}
+
 	/**
 	 * Get a list of revisions in a solution.
 	 *
@@ -296,6 +431,33 @@ public InputStream getArtifactContent(String artifactId) {
 		return download(ARTIFACT_URI, artifactId);
 	}
 
+	/**
+	 * Fetch the manifest of a Docker image artifact.
+	 *
+	 * The manifest lists the digests of the image's configuration and
+	 * layers, which can then be fetched individually, using
+	 * getArtifactBlob().
+	 *
+	 * @param artifactId The ID of the artifact.
+	 * @return The manifest, in Docker Image Manifest V2, Schema 2 format.
+	 * @throws org.springframework.web.client.HttpClientErrorException.NotFound If the peer can't provide the artifact's manifest.
+	 */
+	public byte[] getArtifactManifest(String artifactId) {
+		return handle(ARTIFACT_MANIFEST_URI, HttpMethod.GET, new ParameterizedTypeReference<byte[]>(){}, artifactId);
+	}
+
+	/**
+	 * Fetch a layer or the configuration of a Docker image artifact.
+	 *
+	 * Note: layers can be large (gigabytes).
+	 * @param artifactId The ID of the artifact.
+	 * @param digest The digest of the layer or configuration, from the artifact's manifest.
+	 * @return An InputStream for retrieving the content.
+	 */
+	public InputStream getArtifactBlob(String artifactId, String digest) {
+		return download(ARTIFACT_BLOB_URI, artifactId, digest);
+	}
+
 	/**
 	 * List the documents in a revision and catalog.
 	 *
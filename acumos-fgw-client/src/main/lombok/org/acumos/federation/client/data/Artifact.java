@@ -26,7 +26,7 @@
 import org.acumos.cds.domain.MLPArtifact;
 
 /**
- * Artifact enhanced with file name.
+ * Artifact enhanced with file name and content digest.
  */
 @Data
 @EqualsAndHashCode(callSuper=true)
@@ -42,4 +42,14 @@ public class Artifact extends MLPArtifact {
 	 * @return The current value of the file name.
 	 */
 	private String filename;
+	/**
+	 * The digest of the content of the artifact, as "sha256:" followed
+	 * by the hex encoded SHA-256 hash, or null if not known.  For
+	 * Docker images, this is the image ID.  Peers compare digests to
+	 * avoid copying unchanged content.
+	 *
+	 * @param digest New value for the digest.
+	 * @return The current value of the digest.
+	 */
+	private String digest;
 }
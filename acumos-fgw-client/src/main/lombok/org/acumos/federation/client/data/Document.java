@@ -26,7 +26,7 @@
 import org.acumos.cds.domain.MLPDocument;
 
 /**
- * Document enhanced with file name.
+ * Document enhanced with file name and content digest.
  */
 @Data
 @EqualsAndHashCode(callSuper=true)
@@ -40,4 +40,13 @@ public class Document extends MLPDocument {
 	 * @return The current value of the file name.
 	 */
 	private String filename;
+	/**
+	 * The digest of the content of the document, as "sha256:" followed
+	 * by the hex encoded SHA-256 hash, or null if not known.
+	 * Peers compare digests to avoid copying unchanged content.
+	 *
+	 * @param digest New value for the digest.
+	 * @return The current value of the digest.
+	 */
+	private String digest;
 }
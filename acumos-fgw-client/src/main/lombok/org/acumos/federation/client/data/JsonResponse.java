@@ -19,10 +19,16 @@
  */
 package org.acumos.federation.client.data;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 import lombok.Data;
 
 /**
  * Wrapper for Federation REST responses.
+ *
+ * The paging fields are only sent when a list is requested a page at a time,
+ * so peers that don't know about them are unaffected.
  */
 @Data
 public class JsonResponse<T> {
@@ -47,4 +53,36 @@
 	 * @return The reply value (null on error).
 	 */
 	private T content;
+	/**
+	 * Page number, from 0, when the content is one page of a longer list.
+	 *
+	 * @param page The page number.
+	 * @return The page number (null if the content is not paged).
+	 */
+	@JsonInclude(Include.NON_NULL)
+	private Integer page;
+	/**
+	 * Maximum number of items in a page, when the content is one page of a longer list.
+	 *
+	 * @param size The page size.
+	 * @return The page size (null if the content is not paged).
+	 */
+	@JsonInclude(Include.NON_NULL)
+	private Integer size;
+	/**
+	 * Total number of items, across all pages, when the content is one page of a longer list.
+	 *
+	 * @param totalElements The number of items.
+	 * @return The number of items (null if the content is not paged).
+	 */
+	@JsonInclude(Include.NON_NULL)
+	private Long totalElements;
+	/**
+	 * Whether this is the last page, when the content is one page of a longer list.
+	 *
+	 * @param last Whether this is the last page.
+	 * @return Whether this is the last page (null if the content is not paged).
+	 */
+	@JsonInclude(Include.NON_NULL)
+	private Boolean last;
 }
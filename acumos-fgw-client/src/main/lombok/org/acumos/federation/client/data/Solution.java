@@ -20,6 +20,10 @@
 package org.acumos.federation.client.data;
 
 import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 import org.acumos.cds.domain.MLPSolution;
 import org.acumos.cds.domain.MLPSolutionRevision;
 
@@ -48,4 +52,15 @@ public class Solution extends MLPSolution {
 	 * @return The picture.
 	 */
 	private byte[] picture;
+	/**
+	 * The digest of the picture for this solution, as "sha256:"
+	 * followed by the hex encoded SHA-256 hash, with no picture
+	 * treated as an empty one.  Only sent when the picture itself is
+	 * left out, so peers can tell whether they need to fetch it.
+	 *
+	 * @param pictureDigest The digest.
+	 * @return The digest.
+	 */
+	@JsonInclude(Include.NON_NULL)
+	private String pictureDigest;
 }
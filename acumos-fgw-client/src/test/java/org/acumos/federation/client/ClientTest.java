@@ -21,7 +21,13 @@
 package org.acumos.federation.client;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -34,9 +40,22 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException.Forbidden;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.util.UriTemplateHandler;
@@ -45,6 +64,7 @@
 import org.acumos.cds.domain.MLPSolution;
 
 import org.acumos.federation.client.config.ClientConfig;
+import org.acumos.federation.client.config.PoolConfig;
 import org.acumos.federation.client.data.ModelData;
 import org.acumos.federation.client.data.Solution;
 import org.acumos.federation.client.data.SolutionRevision;
@@ -90,6 +110,14 @@ public void testConfig() throws Exception {
 		cx.setSsl(null);
 		cx.setCreds(null);
 		new FederationClient("http://localhost:9999", cx, null, null);
+		PoolConfig pool = new PoolConfig();
+		pool.setReadTimeout(5000);
+		pool.setTimeToLive(60);
+		pool.setIdleTimeout(0);
+		cx.setPool(pool);
+		assertEquals(5000, ((Configurable)ClientBase.buildHttpClient(cx, null)).getConfig().getSocketTimeout());
+		pool.setIdleTimeout(10);
+		new FederationClient("http://localhost:9999", cx, null, null);
 	}
 
 	@Test
@@ -199,6 +227,10 @@ public void testFederation() throws Exception {
 		List<MLPSolution> sols = client.getSolutions("somecatid");
 		assertEquals(2, sols.size());
 		client.getSolutions("emptyanswer");
+		List<String> solIds = new ArrayList<>();
+		client.getSolutions("somecatid", solution -> solIds.add(((Solution)solution).getSolutionId()));
+		assertEquals(Arrays.asList("someId", "someOtherId"), solIds);
+		client.getSolutions("emptyanswer", solution -> fail());
 		assertEquals(2, client.getCatalogs().size());
 		assertEquals(1, client.getPeers().size());
 		assertEquals(1, client.getSolutionRevisions("solid").size());
@@ -230,6 +262,72 @@ public void testFederation() throws Exception {
 		}
 	}
 
+	private static InputStream failAfter(String data) {
+		return new SequenceInputStream(new ByteArrayInputStream(data.getBytes()), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("Connection reset");
+			}
+		});
+	}
+
+	private static String readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[3];
+		int len;
+		while ((len = is.read(buf)) != -1) {
+			bos.write(buf, 0, len);
+		}
+		return bos.toString();
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		HttpClient http = mock(HttpClient.class);
+		when(http.execute(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(invocation -> {
+			HttpUriRequest req = (HttpUriRequest)invocation.getArguments()[0];
+			Header range = req.getFirstHeader("Range");
+			BasicHttpResponse ret;
+			if (range == null) {
+				ret = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+				if (!req.getURI().getPath().contains("/blobs/")) {
+					ret.addHeader("ETag", "\"v1\"");
+				}
+				ret.setEntity(new InputStreamEntity(failAfter("abc")));
+			} else if (req.getURI().getPath().contains("/blobs/")) {
+				fail();
+				ret = null;
+			} else if (req.getURI().getPath().startsWith("/artifacts/")) {
+				assertEquals("bytes=3-", range.getValue());
+				assertEquals("\"v1\"", req.getFirstHeader("If-Range").getValue());
+				ret = new BasicHttpResponse(HttpVersion.HTTP_1_1, 206, "Partial Content");
+				ret.addHeader("Content-Range", "bytes 3-6/7");
+				ret.setEntity(new InputStreamEntity(new ByteArrayInputStream("defg".getBytes())));
+			} else {
+				ret = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+				ret.setEntity(new InputStreamEntity(new ByteArrayInputStream("abcdefg".getBytes())));
+			}
+			return ret;
+		});
+		FederationClient client = new FederationClient("http://localhost:9999", new ClientConfig());
+		client.restTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory(http));
+		try (InputStream is = client.getArtifactContent("artid")) {
+			assertEquals("abcdefg", readAll(is));
+		}
+		try (InputStream is = client.getDocumentContent("docid")) {
+			readAll(is);
+			fail();
+		} catch (IOException ioe) {
+			// expected case: server ignored the range request
+		}
+		try (InputStream is = client.getArtifactBlob("artid", "sha256:blob")) {
+			readAll(is);
+			fail();
+		} catch (IOException ioe) {
+			// expected case: no validator, so not resumed
+		}
+	}
+
 	private static class UploadTest extends ClientBase {
 		public UploadTest() throws Exception {
 			super("http://example", getConfig("acumosa"), null, null);
@@ -237,18 +335,51 @@ public UploadTest() throws Exception {
 		public void up(String param, InputStream data) {
 			upload("/something/{someparam}", data, param);
 		}
+		public void up(String param, long length, InputStream data) {
+			upload("/something/{someparam}", length, data, param);
+		}
 	}
 
 	@Test
 	public void testUpload() throws Exception {
 		UploadTest client = new UploadTest();
 		assertNotNull(client);
+		long[] length = new long[1];
+		byte[][] body = new byte[1][];
 		(new ClientMocking())
+		    .streamRequestBodies()
 		    .errorOnNoAuth(401, "Unauthorized")
 		    .errorOnBadAuth("acumosa", "acumosa", 403, "Forbidden")
-		    .on("PUT /something/paramvalue", "")
+		    .on("PUT /something/paramvalue", "", ri -> {
+			length[0] = ri.getContentLength();
+			try {
+				body[0] = ri.getBody();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    })
 		    .applyTo(client);
 		client.up("paramvalue", new ByteArrayInputStream("hello".getBytes()));
+		assertEquals(-1, length[0]);
+		assertEquals("hello", new String(body[0]));
+		client.up("paramvalue", 5, new ByteArrayInputStream("hello".getBytes()));
+		assertEquals(5, length[0]);
+		assertEquals("hello", new String(body[0]));
+		client.up("paramvalue", -1, new ByteArrayInputStream("hello".getBytes()));
+		assertEquals(-1, length[0]);
+		assertEquals("hello", new String(body[0]));
+		try {
+			client.up("paramvalue", 6, new ByteArrayInputStream("hello".getBytes()));
+			fail();
+		} catch (ResourceAccessException rae) {
+			// expected case: content shorter than its declared length
+		}
+		try {
+			client.up("paramvalue", 4, new ByteArrayInputStream("hello".getBytes()));
+			fail();
+		} catch (ResourceAccessException rae) {
+			// expected case: content longer than its declared length
+		}
 	}
 
 	@Test
@@ -24,9 +24,24 @@
 import java.lang.invoke.MethodHandles;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +59,7 @@
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -75,23 +91,137 @@ public class Application {
 	 */
 	public Application(){} //NOSONAR
 
+	/*
+	 * The most pages, across all listings, being fetched by background
+	 * threads at the same time.
+	 */
+	private static final int MAX_PAGE_FETCHERS = 16;
+
+	private static ExecutorService pageFetchers;
+
+	/*
+	 * When all the threads are busy, pages are fetched on the thread
+	 * asking for them, so a listing never waits on another's fetches.
+	 */
+	private static synchronized ExecutorService getPageFetchers() {
+		if (pageFetchers == null) {
+			CustomizableThreadFactory factory = new CustomizableThreadFactory("federation-pages-");
+			factory.setDaemon(true);
+			pageFetchers = new ThreadPoolExecutor(0, MAX_PAGE_FETCHERS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+		return pageFetchers;
+	}
+
+	private static <T> RestPageResponse<T> join(Future<RestPageResponse<T>> page) {
+		try {
+			return page.get();
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ie);
+		}
+	}
+
 	/**
 	 * Gather values from multi-page common-dataservice requests.
 	 * @param fcn Function to fetch a page of values.
+	 * @param paging The page size and number of pages to fetch at once.
 	 * @return All of the values.
 	 */
-	public static <T> List<T> cdsAll(Function<RestPageRequest, RestPageResponse<T>> fcn) {
-		RestPageRequest request = new RestPageRequest(0, 100);
+	public static <T> List<T> cdsAll(Function<RestPageRequest, RestPageResponse<T>> fcn, FederationConfig.Cds paging) {
 		List<T> ret = new ArrayList<>();
-		RestPageResponse<T> response;
-		do {
-			response = fcn.apply(request);
-			ret.addAll(response.getContent());
-			request.setPage(response.getNumber() + 1);
-		} while (!response.isLast());
+		cdsEach(fcn, paging, ret::add);
 		return ret;
 	}
 
+	/**
+	 * Process values from multi-page common-dataservice requests, a page
+	 * at a time, without gathering them all into a list.
+	 *
+	 * Once the first page says how many pages there are, the rest are
+	 * fetched, up to the configured number at a time, while the values
+	 * from earlier pages are processed.  Values are always processed in
+	 * order, on the calling thread.  If the listing grows while it is
+	 * being fetched, the extra pages are fetched one at a time.
+	 * @param fcn Function to fetch a page of values.
+	 * @param paging The page size and number of pages to fetch at once.
+	 * @param action Action to perform on each value.
+	 */
+	public static <T> void cdsEach(Function<RestPageRequest, RestPageResponse<T>> fcn, FederationConfig.Cds paging, Consumer<? super T> action) {
+		int size = Math.max(1, paging.getPageSize());
+		int parallelism = paging.getParallelism();
+		RestPageResponse<T> response = fcn.apply(new RestPageRequest(0, size));
+		response.getContent().forEach(action);
+		int page = 1;
+		int total = response.getTotalPages();
+		if (!response.isLast() && parallelism > 1 && total > page) {
+			ArrayDeque<Future<RestPageResponse<T>>> pending = new ArrayDeque<>();
+			try {
+				while (!response.isLast() && (page < total || !pending.isEmpty())) {
+					while (page < total && pending.size() < parallelism) {
+						RestPageRequest request = new RestPageRequest(page++, size);
+						pending.add(getPageFetchers().submit(() -> fcn.apply(request)));
+					}
+					response = join(pending.remove());
+					response.getContent().forEach(action);
+				}
+			} finally {
+				pending.forEach(future -> future.cancel(true));
+			}
+		}
+		while (!response.isLast()) {
+			response = fcn.apply(new RestPageRequest(page++, size));
+			response.getContent().forEach(action);
+		}
+	}
+
+	/**
+	 * Lazily stream values from multi-page common-dataservice requests.
+	 *
+	 * Each page is only requested when the consumer of the stream
+	 * reaches it, and is discarded once passed, so large listings use
+	 * little memory, and consumers that stop early, such as with
+	 * findFirst(), don't request the rest.
+	 * @param fcn Function to fetch a page of values.
+	 * @param paging The page size.
+	 * @return The values.
+	 */
+	public static <T> Stream<T> cdsStream(Function<RestPageRequest, RestPageResponse<T>> fcn, FederationConfig.Cds paging) {
+		int size = Math.max(1, paging.getPageSize());
+		Iterator<T> values = new Iterator<T>() {
+			private int page;
+			private boolean last;
+			private Iterator<T> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!current.hasNext() && !last) {
+					RestPageResponse<T> response = fcn.apply(new RestPageRequest(page++, size));
+					last = response.isLast();
+					current = response.getContent().iterator();
+				}
+				return current.hasNext();
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return current.next();
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(values, Spliterator.ORDERED), false);
+	}
+
 	/**
 	 * Configure one of the child servers (Federation and Gateway).
 	 *
@@ -199,6 +329,11 @@ CatalogService catalogService() {
 		return new CatalogServiceImpl();
 	}
 
+	@Bean
+	MetadataCache metadataCache() {
+		return new MetadataCache();
+	}
+
 	@Bean
 	LogstashService logstashService() {
 		return new LogstashServiceImpl();
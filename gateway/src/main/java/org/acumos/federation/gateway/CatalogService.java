@@ -19,7 +19,9 @@
  */
 package org.acumos.federation.gateway;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.acumos.cds.domain.MLPArtifact;
 import org.acumos.cds.domain.MLPCatalog;
@@ -27,6 +29,7 @@
 import org.acumos.cds.domain.MLPRevCatDescription;
 import org.acumos.cds.domain.MLPSolution;
 import org.acumos.cds.domain.MLPSolutionRevision;
+import org.acumos.cds.transport.RestPageResponse;
 
 /**
  * API for accessing catalogs and related items.
@@ -67,6 +70,39 @@ public interface CatalogService {
 	 * @return List of solutions in the catalog.
 	 */
 	public List<MLPSolution> getSolutions(String catalogId);
+	/**
+	 * Perform an action on each of the solutions in a catalog.
+	 *
+	 * The solutions are fetched, and the action performed, a page
+	 * at a time, so the catalog is never held in memory all at once.
+	 *
+	 * @param catalogId The ID of the catalog to search.
+	 * @param action The action to perform on each solution.
+	 */
+	public void forEachSolution(String catalogId, Consumer<MLPSolution> action);
+	/**
+	 * Get one page of the list of the solutions in a catalog.
+	 *
+	 * @param catalogId The ID of the catalog to search.
+	 * @param page The page number, from 0.
+	 * @param size The maximum number of solutions in a page.
+	 * @return The page of solutions in the catalog.
+	 */
+	public RestPageResponse<MLPSolution> getSolutions(String catalogId, int page, int size);
+	/**
+	 * Get a list of the solutions in a catalog that have changed since a given time.
+	 *
+	 * A solution has changed if it, or any of its revisions, has
+	 * changed.  A revision has changed if it, or any of its artifacts,
+	 * were modified after the given time.  For solutions that have
+	 * changed, revisions whose description or documents, for the
+	 * catalog, were modified after the given time are also listed.
+	 *
+	 * @param catalogId The ID of the catalog to search.
+	 * @param since The time of the previous check.
+	 * @return List of changed solutions, each extended with a list of its changed revisions.
+	 */
+	public List<MLPSolution> getSolutionChanges(String catalogId, Instant since);
 	/**
 	 * Get details of a solution.
 	 *
@@ -74,6 +110,14 @@ public interface CatalogService {
 	 * @return The solution extended with a list of its revisions.
 	 */
 	public MLPSolution getSolution(String solutionId);
+	/**
+	 * Get details of a solution, optionally without its picture.
+	 *
+	 * @param solutionId The ID of the solution to retrieve.
+	 * @param picture Whether to include the picture.
+	 * @return The solution extended with a list of its revisions.
+	 */
+	public MLPSolution getSolution(String solutionId, boolean picture);
 	/**
 	 * Create a solution.
 	 *
@@ -94,6 +138,23 @@ public interface CatalogService {
 	 * @param picture The picture for the solution.
 	 */
 	public void savePicture(String solutionId, byte[] picture);
+	/**
+	 * Get the picture for a solution.
+	 *
+	 * @param solutionId The ID of the solution.
+	 * @return The picture for the solution, or null if it has none.
+	 */
+	public byte[] getPicture(String solutionId);
+	/**
+	 * Get the digest of the picture for a solution.
+	 *
+	 * The picture is only loaded if its digest isn't remembered from
+	 * an earlier request.
+	 *
+	 * @param solution The solution.
+	 * @return The digest, as "sha256:" followed by the hex encoded hash, with no picture treated as an empty one.
+	 */
+	public String getPictureDigest(MLPSolution solution);
 	/**
 	 * Get revisions of a solution.
 	 *
@@ -167,6 +228,14 @@ public interface CatalogService {
 	 * @return The description
 	 */
 	public MLPRevCatDescription createDescription(MLPRevCatDescription revCatDescription);
+	/**
+	 * Get a revision description in a catalog.
+	 *
+	 * @param revisionId The ID of the revision.
+	 * @param catalogId The ID of the catalog.
+	 * @return The description, or null if there is none.
+	 */
+	public MLPRevCatDescription getDescription(String revisionId, String catalogId);
 	/**
 	 * Update a revision description in a catalog.
 	 *
@@ -19,12 +19,33 @@
  */
 package org.acumos.federation.gateway;
 
+import java.lang.invoke.MethodHandles;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import org.acumos.cds.client.ICommonDataServiceRestClient;
 import org.acumos.cds.domain.MLPArtifact;
@@ -33,6 +54,8 @@
 import org.acumos.cds.domain.MLPRevCatDescription;
 import org.acumos.cds.domain.MLPSolution;
 import org.acumos.cds.domain.MLPSolutionRevision;
+import org.acumos.cds.transport.RestPageRequest;
+import org.acumos.cds.transport.RestPageResponse;
 
 import org.acumos.federation.client.data.Catalog;
 import org.acumos.federation.client.data.Solution;
@@ -42,11 +65,204 @@
  * Service bean for implementing the Catalog service using Acumos CDS.
  */
 public class CatalogServiceImpl implements CatalogService {
+	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 	private static final String IGNORED_SOLUTIONID = "ignored";
+	private static final int ACCESS_CACHE_SIZE = 10000;
+
+	private static class CachedDecision {
+		private boolean allowed;
+		private Instant expires;
+
+		public CachedDecision(boolean allowed, Instant expires) {
+			this.allowed = allowed;
+			this.expires = expires;
+		}
+	}
+
+	private static class CatalogIndex {
+		private Map<String, MLPCatalog> catalogs;
+		private volatile Instant expires;
+
+		public CatalogIndex(Map<String, MLPCatalog> catalogs, Instant expires) {
+			this.catalogs = catalogs;
+			this.expires = expires;
+		}
+	}
 
 	@Autowired
 	private Clients clients;
 
+	@Autowired
+	private FederationConfig federation;
+
+	@Autowired
+	private MetadataCache metadataCache;
+
+	@Autowired
+	private ContentService contentService;
+
+	/*
+	 * Recent access control decisions, keyed by peer ID, the kind
+	 * of item, and the item's ID.  Changing the contents of a catalog
+	 * clears them all.
+	 */
+	private Map<String, CachedDecision> accessDecisions = Collections.synchronizedMap(new LinkedHashMap<String, CachedDecision>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedDecision> eldest) {
+			return size() > ACCESS_CACHE_SIZE;
+		}
+	});
+
+	/*
+	 * The solution each recently checked revision belongs to.  This
+	 * never changes, so entries don't expire.
+	 */
+	private Map<String, String> revisionSolutions = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > ACCESS_CACHE_SIZE;
+		}
+	});
+
+	/*
+	 * All local catalogs, with their sizes, keyed by catalog ID.  Once
+	 * it expires, requests keep using it while a fresh copy is loaded
+	 * in the background.
+	 */
+	private volatile CatalogIndex catalogIndex;
+	private boolean refreshing;
+	private ExecutorService refresher;
+	private ThreadPoolExecutor lookups;
+
+	/**
+	 * Stop refreshing the catalog index, and looking up parts of
+	 * solutions and revisions, when shutting down.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+		if (lookups != null) {
+			lookups.shutdownNow();
+			lookups = null;
+		}
+	}
+
+	/*
+	 * When all the threads are busy, and the queue is full, lookups
+	 * run on the thread asking for them, rather than failing.
+	 */
+	private synchronized ExecutorService getLookups() {
+		if (lookups == null) {
+			int threads = Math.max(1, federation.getLookupParallelism());
+			lookups = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 4), new CustomizableThreadFactory("federation-lookup-"), new ThreadPoolExecutor.CallerRunsPolicy());
+			lookups.allowCoreThreadTimeOut(true);
+		}
+		return lookups;
+	}
+
+	private <T> Future<T> lookup(Supplier<T> fcn) {
+		return getLookups().submit(fcn::get);
+	}
+
+	private static <T> T join(Future<T> lookup) {
+		try {
+			return lookup.get();
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ie);
+		}
+	}
+
+	private static void cancel(Future<?>... lookups) {
+		for (Future<?> lookup: lookups) {
+			if (lookup != null) {
+				lookup.cancel(true);
+			}
+		}
+	}
+
+	private CatalogIndex loadCatalogIndex(int timeout) {
+		ICommonDataServiceRestClient client = clients.getCDSClient();
+		Map<String, MLPCatalog> catalogs = new LinkedHashMap<>();
+		Application.cdsEach(pr -> client.getCatalogs(pr), federation.getCds(), mcat -> {
+			((Catalog)mcat).setSize((int)client.getCatalogSolutionCount(mcat.getCatalogId()));
+			catalogs.put(mcat.getCatalogId(), mcat);
+		});
+		CatalogIndex ret = new CatalogIndex(catalogs, Instant.now().plusSeconds(timeout));
+		if (timeout > 0) {
+			catalogIndex = ret;
+		}
+		return ret;
+	}
+
+	private synchronized void refreshCatalogIndex() {
+		if (refreshing) {
+			return;
+		}
+		if (refresher == null) {
+			refresher = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("federation-catalogs-"));
+		}
+		refreshing = true;
+		refresher.execute(() -> {
+			try {
+				loadCatalogIndex(federation.getCatalogCacheTimeout());
+			} catch (Exception ex) {
+				log.warn("Failed to refresh catalog index", ex);
+			} finally {
+				synchronized (this) {
+					refreshing = false;
+				}
+			}
+		});
+	}
+
+	private Map<String, MLPCatalog> getCatalogIndex() {
+		int timeout = federation.getCatalogCacheTimeout();
+		CatalogIndex index = catalogIndex;
+		if (timeout <= 0 || index == null) {
+			return loadCatalogIndex(timeout).catalogs;
+		}
+		if (!index.expires.isAfter(Instant.now())) {
+			refreshCatalogIndex();
+		}
+		return index.catalogs;
+	}
+
+	private void expireCatalogIndex() {
+		CatalogIndex index = catalogIndex;
+		if (index != null) {
+			index.expires = Instant.EPOCH;
+		}
+	}
+
+	private boolean isAllowed(String kind, String id, BooleanSupplier check) {
+		int timeout = federation.getAccessCacheTimeout();
+		if (timeout <= 0) {
+			return check.getAsBoolean();
+		}
+		String key = Security.getCurrentPeerId() + " " + kind + " " + id;
+		Instant now = Instant.now();
+		CachedDecision cached = accessDecisions.get(key);
+		if (cached != null && cached.expires.isAfter(now)) {
+			return cached.allowed;
+		}
+		boolean ret = check.getAsBoolean();
+		accessDecisions.put(key, new CachedDecision(ret, now.plusSeconds(timeout)));
+		return ret;
+	}
+
 	@Override
 	public MLPArtifact getArtifact(String artifactId) {
 		return clients.getCDSClient().getArtifact(artifactId);
@@ -65,32 +281,28 @@ public MLPArtifact createArtifact(MLPArtifact artifact) {
 	@Override
 	public void updateArtifact(MLPArtifact artifact) {
 		clients.getCDSClient().updateArtifact(artifact);
+		metadataCache.removeRevisions();
 	}
 
 	@Override
 	public void addArtifact(String solutionId, String revisionId, String artifactId) {
 		clients.getCDSClient().addSolutionRevisionArtifact(solutionId, revisionId, artifactId);
+		metadataCache.removeRevision(revisionId);
 	}
 
 	@Override
 	public List<MLPCatalog> getAllCatalogs() {
-		return Application.cdsAll(pr -> clients.getCDSClient().getCatalogs(pr));
+		return Application.cdsAll(pr -> clients.getCDSClient().getCatalogs(pr), federation.getCds());
 	}
 
 	@Override
 	public List<MLPCatalog> getCatalogs() {
-		ICommonDataServiceRestClient client = clients.getCDSClient();
-		List<MLPCatalog> ret = Application.cdsAll(pr -> client.searchCatalogs(Collections.singletonMap("accessTypeCode", "PB"), false, pr));
+		Map<String, MLPCatalog> index = getCatalogIndex();
 		String peerId = Security.getCurrentPeerId();
-		Set<String> toget = peerId != null? new HashSet<>(client.getPeerAccessCatalogIds(peerId)): new HashSet<>();
-		for (MLPCatalog mcat: ret) {
-			toget.remove(mcat.getCatalogId());
-			((Catalog)mcat).setSize((int)client.getCatalogSolutionCount(mcat.getCatalogId()));
-		}
-		for (String catid: toget) {
-			MLPCatalog mcat = client.getCatalog(catid);
-			if (mcat != null) {
-				((Catalog)mcat).setSize((int)client.getCatalogSolutionCount(catid));
+		Set<String> access = peerId != null? new HashSet<>(clients.getCDSClient().getPeerAccessCatalogIds(peerId)): new HashSet<>();
+		List<MLPCatalog> ret = new ArrayList<>();
+		for (MLPCatalog mcat: index.values()) {
+			if ("PB".equals(mcat.getAccessTypeCode()) || access.contains(mcat.getCatalogId())) {
 				ret.add(mcat);
 			}
 		}
@@ -100,11 +312,25 @@ public List<MLPCatalog> getCatalogs() {
 	@Override
 	public void createCatalog(MLPCatalog catalog) {
 		clients.getCDSClient().createCatalog(catalog);
+		accessDecisions.clear();
+		expireCatalogIndex();
 	}
 
 	@Override
 	public void savePicture(String solutionId, byte[] picture) {
 		clients.getCDSClient().saveSolutionPicture(solutionId, picture);
+		metadataCache.removeSolution(solutionId);
+	}
+
+	@Override
+	public byte[] getPicture(String solutionId) {
+		return clients.getCDSClient().getSolutionPicture(solutionId);
+	}
+
+	@Override
+	public String getPictureDigest(MLPSolution solution) {
+		String solutionId = solution.getSolutionId();
+		return metadataCache.getPictureDigest(solutionId, solution.getModified(), () -> contentService.getPictureDigest(getPicture(solutionId)));
 	}
 
 	@Override
@@ -125,42 +351,64 @@ public MLPDocument createDocument(MLPDocument document) {
 	@Override
 	public void updateDocument(MLPDocument document) {
 		clients.getCDSClient().updateDocument(document);
+		metadataCache.removeRevisions();
 	}
 
 	@Override
 	public void addDocument(String revisionId, String catalogId, String documentId) {
 		clients.getCDSClient().addRevisionCatalogDocument(revisionId, catalogId, documentId);
+		metadataCache.removeRevision(revisionId);
 	}
 
 	@Override
 	public MLPRevCatDescription createDescription(MLPRevCatDescription revCatDescription) {
-		return clients.getCDSClient().createRevCatDescription(revCatDescription);
+		MLPRevCatDescription ret = clients.getCDSClient().createRevCatDescription(revCatDescription);
+		metadataCache.removeRevision(revCatDescription.getRevisionId());
+		return ret;
+	}
+
+	@Override
+	public MLPRevCatDescription getDescription(String revisionId, String catalogId) {
+		return clients.getCDSClient().getRevCatDescription(revisionId, catalogId);
 	}
 
 	@Override
 	public void updateDescription(MLPRevCatDescription revCatDescription) {
 		clients.getCDSClient().updateRevCatDescription(revCatDescription);
+		metadataCache.removeRevision(revCatDescription.getRevisionId());
 	}
 
 	@Override
 	public void deleteDescription(String revisionId, String catalogId) {
 		clients.getCDSClient().deleteRevCatDescription(revisionId, catalogId);
+		metadataCache.removeRevision(revisionId);
 	}
 
 	@Override
 	public MLPSolutionRevision getRevision(String revisionId, String catalogId) {
 		ICommonDataServiceRestClient client = clients.getCDSClient();
-		SolutionRevision ret = (SolutionRevision)client.getSolutionRevision(IGNORED_SOLUTIONID, revisionId);
-		if (ret == null) {
-			return ret;
-		}
-		ret.setArtifacts(getArtifacts(revisionId));
-		if (catalogId == null) {
+		Future<List<MLPArtifact>> artifacts = lookup(() -> getArtifacts(revisionId));
+		Future<MLPRevCatDescription> description = catalogId == null? null: lookup(() -> client.getRevCatDescription(revisionId, catalogId));
+		Future<List<MLPDocument>> documents = catalogId == null? null: lookup(() -> getDocuments(revisionId, catalogId));
+		try {
+			SolutionRevision ret = (SolutionRevision)client.getSolutionRevision(IGNORED_SOLUTIONID, revisionId);
+			if (ret == null) {
+				return ret;
+			}
+			ret.setArtifacts(join(artifacts));
+			if (catalogId == null) {
+				return ret;
+			}
+			ret.setRevCatDescription(join(description));
+			ret.setDocuments(join(documents));
 			return ret;
+		} finally {
+			/*
+			 * Lookups still running, because the revision wasn't found,
+			 * or an earlier one failed, are no longer wanted.
+			 */
+			cancel(artifacts, description, documents);
 		}
-		ret.setRevCatDescription(client.getRevCatDescription(revisionId, catalogId));
-		ret.setDocuments(getDocuments(revisionId, catalogId));
-		return ret;
 	}
 
 	@Override
@@ -170,47 +418,134 @@ public List<MLPSolutionRevision> getRevisions(String solutionId) {
 
 	@Override
 	public MLPSolutionRevision createRevision(MLPSolutionRevision revision) {
-		return clients.getCDSClient().createSolutionRevision(revision);
+		MLPSolutionRevision ret = clients.getCDSClient().createSolutionRevision(revision);
+		metadataCache.removeSolution(revision.getSolutionId());
+		return ret;
 	}
 
 	@Override
 	public void updateRevision(MLPSolutionRevision revision) {
 		clients.getCDSClient().updateSolutionRevision(revision);
+		metadataCache.removeSolution(revision.getSolutionId());
+		metadataCache.removeRevision(revision.getRevisionId());
 	}
 
 	@Override
 	public MLPSolution getSolution(String solutionId) {
+		return getSolution(solutionId, true);
+	}
+
+	@Override
+	public MLPSolution getSolution(String solutionId, boolean withPicture) {
 		ICommonDataServiceRestClient client = clients.getCDSClient();
-		Solution ret = (Solution)client.getSolution(solutionId);
-		if (ret == null) {
-			return null;
-		}
-		ret.setRevisions(getRevisions(solutionId));
-		if (ret.getRevisions() == null || ret.getRevisions().isEmpty()) {
-			return null;
+		Future<List<MLPSolutionRevision>> revisions = lookup(() -> getRevisions(solutionId));
+		Future<byte[]> picture = withPicture? lookup(() -> client.getSolutionPicture(solutionId)): null;
+		try {
+			Solution ret = (Solution)client.getSolution(solutionId);
+			if (ret == null) {
+				return null;
+			}
+			ret.setRevisions(join(revisions));
+			if (ret.getRevisions() == null || ret.getRevisions().isEmpty()) {
+				return null;
+			}
+			if (withPicture) {
+				ret.setPicture(join(picture));
+			}
+			return ret;
+		} finally {
+			cancel(revisions, picture);
 		}
-		ret.setPicture(client.getSolutionPicture(solutionId));
-		return ret;
 	}
 
 	@Override
 	public List<MLPSolution> getSolutions(String catalogId) {
-		return Application.cdsAll(pr -> clients.getCDSClient().getSolutionsInCatalogs(new String[] { catalogId }, pr));
+		return Application.cdsAll(pr -> clients.getCDSClient().getSolutionsInCatalogs(new String[] { catalogId }, pr), federation.getCds());
+	}
+
+	@Override
+	public void forEachSolution(String catalogId, Consumer<MLPSolution> action) {
+		Application.cdsEach(pr -> clients.getCDSClient().getSolutionsInCatalogs(new String[] { catalogId }, pr), federation.getCds(), action);
+	}
+
+	@Override
+	public RestPageResponse<MLPSolution> getSolutions(String catalogId, int page, int size) {
+		return clients.getCDSClient().getSolutionsInCatalogs(new String[] { catalogId }, new RestPageRequest(page, size));
+	}
+
+	private static boolean isChanged(Instant modified, Instant since) {
+		return modified == null || modified.isAfter(since);
+	}
+
+	private boolean isRevisionChanged(MLPSolutionRevision revision, String catalogId, Instant since) {
+		if (isChanged(revision.getModified(), since)) {
+			return true;
+		}
+		String revisionId = revision.getRevisionId();
+		for (MLPArtifact artifact: getArtifacts(revisionId)) {
+			if (isChanged(artifact.getModified(), since)) {
+				return true;
+			}
+		}
+		MLPRevCatDescription description = clients.getCDSClient().getRevCatDescription(revisionId, catalogId);
+		if (description != null && isChanged(description.getModified(), since)) {
+			return true;
+		}
+		for (MLPDocument document: getDocuments(revisionId, catalogId)) {
+			if (isChanged(document.getModified(), since)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The common data service finds the solutions in the catalog that,
+	 * or any of whose revisions or artifacts, were modified after the
+	 * given time, so unchanged solutions are never looked at.  Only the
+	 * revisions of those solutions are checked individually.
+	 */
+	@Override
+	public List<MLPSolution> getSolutionChanges(String catalogId, Instant since) {
+		List<MLPSolution> ret = new ArrayList<>();
+		for (MLPSolution sol: Application.cdsAll(pr -> clients.getCDSClient().findPublishedSolutionsByDate(new String[] { catalogId }, since, pr), federation.getCds())) {
+			List<MLPSolutionRevision> revisions = getRevisions(sol.getSolutionId());
+			if (revisions == null || revisions.isEmpty()) {
+				continue;
+			}
+			List<MLPSolutionRevision> changed = new ArrayList<>();
+			for (MLPSolutionRevision rev: revisions) {
+				if (isRevisionChanged(rev, catalogId, since)) {
+					changed.add(rev);
+				}
+			}
+			if (changed.isEmpty() && !isChanged(sol.getModified(), since)) {
+				continue;
+			}
+			((Solution)sol).setRevisions(changed);
+			ret.add(sol);
+		}
+		return ret;
 	}
 
 	@Override
 	public MLPSolution createSolution(MLPSolution solution) {
-		return clients.getCDSClient().createSolution(solution);
+		MLPSolution ret = clients.getCDSClient().createSolution(solution);
+		metadataCache.removeSolution(solution.getSolutionId());
+		return ret;
 	}
 
 	@Override
 	public void updateSolution(MLPSolution solution) {
 		clients.getCDSClient().updateSolution(solution);
+		metadataCache.removeSolution(solution.getSolutionId());
 	}
 
 	@Override
 	public void addSolution(String solutionId, String catalogId) {
 		clients.getCDSClient().addSolutionToCatalog(solutionId, catalogId);
+		accessDecisions.clear();
+		expireCatalogIndex();
 	}
 
 	@Override
@@ -220,7 +555,7 @@ public boolean isArtifactAllowed(String artifactId) {
 
 	@Override
 	public boolean isCatalogAllowed(String catalogId) {
-		return clients.getCDSClient().isPeerAccessToCatalog(Security.getCurrentPeerId(), catalogId);
+		return isAllowed("catalog", catalogId, () -> clients.getCDSClient().isPeerAccessToCatalog(Security.getCurrentPeerId(), catalogId));
 	}
 
 	@Override
@@ -230,12 +565,20 @@ public boolean isDocumentAllowed(String documentId) {
 
 	@Override
 	public boolean isRevisionAllowed(String revisionId) {
-		MLPSolutionRevision rev = clients.getCDSClient().getSolutionRevision(IGNORED_SOLUTIONID, revisionId);
-		return rev != null && isSolutionAllowed(rev.getSolutionId());
+		String solutionId = revisionSolutions.get(revisionId);
+		if (solutionId == null) {
+			MLPSolutionRevision rev = clients.getCDSClient().getSolutionRevision(IGNORED_SOLUTIONID, revisionId);
+			if (rev == null) {
+				return false;
+			}
+			solutionId = rev.getSolutionId();
+			revisionSolutions.put(revisionId, solutionId);
+		}
+		return isSolutionAllowed(solutionId);
 	}
 
 	@Override
 	public boolean isSolutionAllowed(String solutionId) {
-		return clients.getCDSClient().isPeerAccessToSolution(Security.getCurrentPeerId(), solutionId);
+		return isAllowed("solution", solutionId, () -> clients.getCDSClient().isPeerAccessToSolution(Security.getCurrentPeerId(), solutionId));
 	}
 }
@@ -19,15 +19,34 @@
  */
 package org.acumos.federation.gateway;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.http.client.HttpClient;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
 import com.github.dockerjava.core.DockerClientBuilder;
+import com.github.dockerjava.jaxrs.JerseyDockerCmdExecFactory;
 
 import org.acumos.cds.client.ICommonDataServiceRestClient;
 import org.acumos.cds.client.CommonDataServiceRestClientImpl;
 
+import org.acumos.federation.client.config.BasicAuthConfig;
 import org.acumos.federation.client.config.ClientConfig;
 import org.acumos.federation.client.ClientBase;
 import org.acumos.federation.client.FederationClient;
@@ -44,6 +63,8 @@
  * By mocking this bean, all external access can be stubbed out.
  */
 public class Clients {
+	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
 	/*
 	 * Implementation note:
 	 *
@@ -83,22 +104,45 @@ public class Clients {
 
 	private ICommonDataServiceRestClient cdsClient;
 	private NexusClient nexusClient;
+	private RegistryClient registryClient;
 	private ISecurityVerificationClientService svClient;
 	private LicenseAsset lmClient;
 	private LogstashClient logstashClient;
 
-	public FederationClient getFederationClient(String url) {
+	private static class CachedFederationClient {
+		private FederationClient client;
+		private long lastUsed;
+	}
+
+	private HttpClient federationHttpClient;
+	private HashMap<String, CachedFederationClient> federationClients = new HashMap<>();
+
+	public synchronized FederationClient getFederationClient(String url) {
 		/*
 		 * The set of peers can change, at runtime, and there is no
 		 * notification when one is deleted (or has its API URL
-		 * changed).  It would have been possible to keep federation
-		 * clients in a hash and fault them in, as needed, but, without
-		 * a means for identifying clients that were no longer needed,
-		 * that would have constituted a memory (and possibly a TCP/IP
-		 * connection) leak.  So this code does not cache federation
-		 * clients.
+		 * changed).  Federation clients are kept in a hash, keyed
+		 * by URL, and faulted in, as needed, but any client that
+		 * hasn't been used for a while is dropped, so clients for
+		 * peers that no longer exist, or whose API URL has changed,
+		 * don't accumulate.  All federation clients share a single
+		 * HttpClient, so they share a pool of connections, and
+		 * TLS sessions, and the key store and trust store are
+		 * only loaded once.
 		 */
-		return new FederationClient(url, federation);
+		long now = System.currentTimeMillis();
+		long idle = 1000L * federation.getClientIdleTimeout();
+		federationClients.values().removeIf(cached -> now - cached.lastUsed > idle);
+		if (federationHttpClient == null) {
+			federationHttpClient = ClientBase.buildHttpClient(federation, null);
+		}
+		CachedFederationClient ret = federationClients.computeIfAbsent(url, key -> {
+			CachedFederationClient cached = new CachedFederationClient();
+			cached.client = new FederationClient(key, federationHttpClient, federation, null);
+			return cached;
+		});
+		ret.lastUsed = now;
+		return ret.client;
 	}
 
 	/**
@@ -118,6 +162,7 @@ public synchronized ICommonDataServiceRestClient getCDSClient() {
 			String url = cdmsConfig.getUrl();
 			ClientConfig cc = new ClientConfig();
 			cc.setCreds(cdmsConfig);
+			cc.setPool(cdmsConfig.getPool());
 			cdsClient = CommonDataServiceRestClientImpl.getInstance(url, ClientBase.buildRestTemplate(url, cc, null, null));
 		}
 		return cdsClient;
@@ -127,21 +172,148 @@ public synchronized NexusClient getNexusClient() {
 		if (nexusClient == null) {
 			ClientConfig cc = new ClientConfig();
 			cc.setCreds(nexusConfig);
+			cc.setPool(nexusConfig.getPool());
 			nexusClient = new NexusClient(nexusConfig.getUrl(), cc);
 		}
 		return nexusClient;
 	}
 
-	public synchronized DockerClient getDockerClient() {
-		/*
-		 * For some reason, the DockerClient seems to go stale,
-		 * resulting in operations (like the docker pull command)
-		 * unexpectedly hanging, with no error or indication of a
-		 * problem.  Creating a fresh DockerClient on each
-		 * upload/download of a Docker image artifact, as a
-		 * workaround, seems to work.
-		 */
-		return DockerClientBuilder.getInstance(
+	public synchronized RegistryClient getRegistryClient() {
+		if (registryClient == null) {
+			ClientConfig cc = new ClientConfig();
+			BasicAuthConfig creds = new BasicAuthConfig();
+			creds.setUsername(dockerConfig.getRegistryUsername());
+			creds.setPassword(dockerConfig.getRegistryPassword());
+			cc.setCreds(creds);
+			registryClient = new RegistryClient(dockerConfig.getRegistryUrl(), cc);
+		}
+		return registryClient;
+	}
+
+	/*
+	 * The Docker client is managed under its own lock, so checking
+	 * on the Docker host doesn't hold up getting any other client.
+	 */
+	private final Object dockerLock = new Object();
+	private DockerClient dockerClient;
+	private long dockerLastUsed;
+	private boolean dockerFailed;
+	private ExecutorService dockerPings;
+
+	/*
+	 * How many operations are using each Docker client.  A client
+	 * that is replaced while operations are using it is left open
+	 * until the last of them finishes.
+	 */
+	private Map<DockerClient, Integer> dockerUsers = new IdentityHashMap<>();
+
+	/*
+	 * The Docker host has been seen to stop responding, to a client,
+	 * with operations (like the docker pull command) hanging, with no
+	 * error or indication of a problem.  So, if the cached client has
+	 * been idle for a while, or an operation using it has failed,
+	 * check that the Docker host still answers a ping, within a short
+	 * time, before handing it out again, and, if not, replace it.
+	 * Pings are sent from their own threads, so a ping that hangs
+	 * doesn't tie up threads shared with anything else.
+	 */
+	private boolean isResponding(DockerClient client) {
+		if (dockerPings == null) {
+			CustomizableThreadFactory factory = new CustomizableThreadFactory("federation-docker-ping-");
+			factory.setDaemon(true);
+			dockerPings = Executors.newCachedThreadPool(factory);
+		}
+		try {
+			dockerPings.submit(() -> client.pingCmd().exec()).get(dockerConfig.getPingTimeout(), TimeUnit.SECONDS);
+			return true;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException | TimeoutException ex) {
+			log.warn("Docker host {} is not responding.  Replacing client: {}", dockerConfig.getHost(), ex.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Report that an operation, using a client from getDockerClient(),
+	 * failed or timed out, so the Docker host is checked before the
+	 * client is used again.
+	 *
+	 * @param client The client used for the operation.
+	 */
+	public void dockerFailed(DockerClient client) {
+		synchronized (dockerLock) {
+			if (client == dockerClient) {
+				dockerFailed = true;
+			}
+		}
+	}
+
+	/**
+	 * Report that an operation, using a client from getDockerClient(),
+	 * has finished, including reading any content it returned.
+	 *
+	 * @param client The client used for the operation.
+	 */
+	public void releaseDockerClient(DockerClient client) {
+		synchronized (dockerLock) {
+			Integer users = dockerUsers.remove(client);
+			if (users != null && users > 1) {
+				dockerUsers.put(client, users - 1);
+			} else if (client == dockerClient) {
+				dockerLastUsed = System.currentTimeMillis();
+			} else if (users != null) {
+				closeDockerClient(client);
+			}
+		}
+	}
+
+	private void closeDockerClient(DockerClient client) {
+		try {
+			client.close();
+		} catch (IOException | RuntimeException ex) {
+			log.warn("Error closing client for Docker host {}: {}", dockerConfig.getHost(), ex.toString());
+		}
+	}
+
+	/**
+	 * Get a client for the Docker host, for an operation.  The caller
+	 * must pass the client to releaseDockerClient() once the operation
+	 * has finished.
+	 *
+	 * @return The client.
+	 */
+	public DockerClient getDockerClient() {
+		synchronized (dockerLock) {
+			DockerClient ret = acquireDockerClient();
+			dockerUsers.merge(ret, 1, Integer::sum);
+			return ret;
+		}
+	}
+
+	/*
+	 * A client in use by some operation isn't idle, however long ago
+	 * the operation started.  Call with dockerLock held.
+	 */
+	private DockerClient acquireDockerClient() {
+		long now = System.currentTimeMillis();
+		if (dockerClient != null && (!dockerFailed && (dockerUsers.containsKey(dockerClient) || now - dockerLastUsed <= 1000L * dockerConfig.getIdleTimeout()) || isResponding(dockerClient))) {
+			dockerFailed = false;
+			dockerLastUsed = now;
+			return dockerClient;
+		}
+		if (dockerClient != null && !dockerUsers.containsKey(dockerClient)) {
+			closeDockerClient(dockerClient);
+		}
+		JerseyDockerCmdExecFactory factory = new JerseyDockerCmdExecFactory()
+		    .withConnectTimeout(dockerConfig.getPingTimeout() * 1000)
+		    .withMaxTotalConnections(dockerConfig.getMaxConnections())
+		    .withMaxPerRouteConnections(dockerConfig.getMaxConnections());
+		if (dockerConfig.getTimeout() > 0) {
+			factory.withReadTimeout(dockerConfig.getTimeout() * 1000);
+		}
+		dockerClient = DockerClientBuilder.getInstance(
 		    DefaultDockerClientConfig.createDefaultConfigBuilder()
 			.withDockerHost(dockerConfig.getHost())
 			.withDockerTlsVerify(dockerConfig.getTlsVerify())
@@ -153,7 +325,10 @@ public synchronized DockerClient getDockerClient() {
 			.withRegistryEmail(dockerConfig.getRegistryEmail())
 			.withRegistryUrl(dockerConfig.getRegistryUrl())
 			.build()
-		    ).build();
+		    ).withDockerCmdExecFactory(factory).build();
+		dockerFailed = false;
+		dockerLastUsed = now;
+		return dockerClient;
 	}
 
 	public synchronized ISecurityVerificationClientService getSVClient() {
@@ -186,6 +361,7 @@ public synchronized LogstashClient getLogstashClient(){
 		if(logstashClient == null){
 			ClientConfig cc = new ClientConfig();
 			cc.setCreds(logstashConfig);
+			cc.setPool(logstashConfig.getPool());
 			logstashClient = new LogstashClient(logstashConfig.getUrl(), cc);
 		}
 		return logstashClient;
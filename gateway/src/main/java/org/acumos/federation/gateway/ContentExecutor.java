@@ -0,0 +1,202 @@
+/*-
+ * ===============LICENSE_START=======================================================
+ * Acumos
+ * ===================================================================================
+ * Copyright (C) 2019 AT&T Intellectual Property & Tech Mahindra. All rights reserved.
+ * ===================================================================================
+ * This Acumos software file is distributed by AT&T and Tech Mahindra
+ * under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ===============LICENSE_END=========================================================
+ */
+package org.acumos.federation.gateway;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Runs peers' requests for artifact and document content on a dedicated
+ * pool of threads, rather than the pool Spring MVC uses for all
+ * asynchronous requests, and limits how many transfers each peer may
+ * have in progress at once.
+ *
+ * A transfer holds one of its peer's slots from when its content is
+ * opened until the response has been sent.  Requests beyond a peer's
+ * limit wait, in order, for one of its slots to free up, so a peer
+ * pulling many large images can't starve the others.
+ */
+public class ContentExecutor {
+	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+	@Autowired
+	private FederationConfig federation;
+
+	private class Transfer implements Runnable {
+		private String peerId;
+		private Callable<ResponseEntity<Resource>> source;
+		private DeferredResult<ResponseEntity<Resource>> result = new DeferredResult<>();
+		private boolean started;
+
+		public Transfer(String peerId, Callable<ResponseEntity<Resource>> source) {
+			this.peerId = peerId;
+			this.source = source;
+			result.onCompletion(() -> finish(this));
+		}
+
+		public void run() {
+			if (result.isSetOrExpired()) {
+				return;
+			}
+			try {
+				ResponseEntity<Resource> response = source.call();
+				if (!result.setResult(response)) {
+					discard(response);
+				}
+			} catch (Exception ex) {
+				result.setErrorResult(ex);
+			}
+		}
+	}
+
+	private static class PeerTransfers {
+		private int active;
+		private ArrayDeque<Transfer> waiting = new ArrayDeque<>();
+	}
+
+	private HashMap<String, PeerTransfers> peers = new HashMap<>();
+	private int active;
+	private int waiting;
+	private ExecutorService workers;
+
+	private synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			workers = Executors.newFixedThreadPool(Math.max(1, federation.getContent().getParallelism()), new CustomizableThreadFactory("federation-content-"));
+		}
+		return workers;
+	}
+
+	/**
+	 * Stop preparing content when shutting down.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	/**
+	 * Prepare content for a peer, as soon as the peer has a free slot.
+	 *
+	 * @param peerId The ID of the peer requesting the content.
+	 * @param source Prepares the response containing the content.
+	 * @return The eventual response.
+	 */
+	public DeferredResult<ResponseEntity<Resource>> submit(String peerId, Callable<ResponseEntity<Resource>> source) {
+		Transfer transfer = new Transfer(peerId == null? "": peerId, source);
+		start(transfer);
+		return transfer.result;
+	}
+
+	/**
+	 * Get the number of transfers in progress, across all peers.
+	 *
+	 * @return The number of transfers.
+	 */
+	public synchronized int getActive() {
+		return active;
+	}
+
+	/**
+	 * Get the number of transfers waiting for a free slot, across all peers.
+	 *
+	 * @return The number of transfers.
+	 */
+	public synchronized int getWaiting() {
+		return waiting;
+	}
+
+	private synchronized void start(Transfer transfer) {
+		PeerTransfers peer = peers.computeIfAbsent(transfer.peerId, key -> new PeerTransfers());
+		if (peer.active < Math.max(1, federation.getContent().getPerPeer())) {
+			run(peer, transfer);
+		} else {
+			peer.waiting.add(transfer);
+			waiting++;
+			log.info("Peer {} has {} content transfers in progress.  Queueing request ({} waiting in all)", transfer.peerId, peer.active, waiting);
+		}
+	}
+
+	private void run(PeerTransfers peer, Transfer transfer) {
+		peer.active++;
+		active++;
+		transfer.started = true;
+		getWorkers().execute(transfer);
+	}
+
+	private void finish(Transfer transfer) {
+		synchronized (this) {
+			PeerTransfers peer = peers.get(transfer.peerId);
+			if (!transfer.started) {
+				peer.waiting.remove(transfer);
+				waiting--;
+			} else {
+				peer.active--;
+				active--;
+				if (!peer.waiting.isEmpty()) {
+					waiting--;
+					run(peer, peer.waiting.remove());
+				}
+			}
+			if (peer.active == 0 && peer.waiting.isEmpty()) {
+				peers.remove(transfer.peerId);
+			}
+			log.debug("Content transfer for peer {} finished.  {} in progress, {} waiting", transfer.peerId, active, waiting);
+		}
+		Object result = transfer.result.getResult();
+		if (result instanceof ResponseEntity) {
+			discard((ResponseEntity<?>)result);
+		}
+	}
+
+	/*
+	 * Close the content of a response that was never sent, or was
+	 * abandoned part way through.  Content that has been sent is
+	 * already closed, and can't be opened again.
+	 */
+	private static void discard(ResponseEntity<?> response) {
+		if (response == null || !(response.getBody() instanceof Resource)) {
+			return;
+		}
+		try {
+			((Resource)response.getBody()).getInputStream().close();
+		} catch (IOException | IllegalStateException ex) {
+			// already closed or never opened
+		}
+	}
+}
@@ -20,6 +20,8 @@
 package org.acumos.federation.gateway;
 
 import java.io.InputStream;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.acumos.cds.domain.MLPArtifact;
 import org.acumos.cds.domain.MLPDocument;
@@ -36,6 +38,32 @@ public interface ContentService {
 	 */
 	public InputStream getArtifactContent(MLPArtifact artifact);
 
+	/**
+	 * Get the body of an artifact, starting part way through.
+	 *
+	 * @param artifact The artifact to retrieve.
+	 * @param offset The number of bytes, at the start, to leave out.
+	 * @return An InputStream for reading the rest of the artifact's content.
+	 */
+	public InputStream getArtifactContent(MLPArtifact artifact, long offset);
+
+	/**
+	 * Get the length of the body of an artifact, as read by
+	 * getArtifactContent, before reading it.
+	 *
+	 * @param artifact The artifact to check.
+	 * @return The length, or null if it isn't known until the content is read.
+	 */
+	public Long getArtifactLength(MLPArtifact artifact);
+
+	/**
+	 * Get the digest of the body of an artifact.
+	 *
+	 * @param artifact The artifact to check.
+	 * @return The digest, as "sha256:" followed by the hex encoded hash, or null if not available.
+	 */
+	public String getArtifactDigest(MLPArtifact artifact);
+
 	/**
 	 * Set the URI for an artifact.
 	 *
@@ -53,6 +81,35 @@ public interface ContentService {
 	 */
 	public void putArtifactContent(MLPArtifact artifact, String tag, InputStream is);
 
+	/**
+	 * Get the manifest of a Docker image artifact.
+	 *
+	 * @param artifact The artifact to check.
+	 * @return The manifest, or null if the image can't be accessed a layer at a time.
+	 */
+	public byte[] getArtifactManifest(MLPArtifact artifact);
+
+	/**
+	 * Get a layer or the configuration of a Docker image artifact.
+	 *
+	 * @param artifact The artifact to retrieve from.
+	 * @param digest The digest of the layer or configuration, from the artifact's manifest.
+	 * @param offset The number of bytes, at the start, to leave out.
+	 * @return An InputStream for reading the content.
+	 */
+	public InputStream getArtifactBlob(MLPArtifact artifact, String digest, long offset);
+
+	/**
+	 * Put the content of a Docker image artifact a layer at a time,
+	 * fetching only the layers that aren't already present.
+	 *
+	 * @param artifact The artifact to put.
+	 * @param manifest Fetches the image's manifest, returning null if it isn't available.
+	 * @param blobs Fetches a layer or the configuration, given its digest.
+	 * @return False, if the image can't be put a layer at a time, and must be put using putArtifactContent.
+	 */
+	public boolean putArtifactLayers(MLPArtifact artifact, Supplier<byte[]> manifest, Function<String, InputStream> blobs);
+
 	/**
 	 * Get the body of a document.
 	 *
@@ -61,6 +118,31 @@ public interface ContentService {
 	 */
 	public InputStream getDocumentContent(MLPDocument document);
 
+	/**
+	 * Get the body of a document, starting part way through.
+	 *
+	 * @param document The document to retrieve.
+	 * @param offset The number of bytes, at the start, to leave out.
+	 * @return An InputStream for reading the rest of the document's content.
+	 */
+	public InputStream getDocumentContent(MLPDocument document, long offset);
+
+	/**
+	 * Get the digest of the body of a document.
+	 *
+	 * @param document The document to check.
+	 * @return The digest, as "sha256:" followed by the hex encoded hash, or null if not available.
+	 */
+	public String getDocumentDigest(MLPDocument document);
+
+	/**
+	 * Get the digest of a solution's picture.
+	 *
+	 * @param picture The picture, or null if there is none.
+	 * @return The digest, as "sha256:" followed by the hex encoded hash, with no picture treated as an empty one.
+	 */
+	public String getPictureDigest(byte[] picture);
+
 	/**
 	 * Set the URI for an document.
 	 *
@@ -19,14 +19,28 @@
  */
 package org.acumos.federation.gateway;
 
+import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.exception.DockerException;
+import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.AuthConfig;
-import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.core.async.ResultCallbackTemplate;
 import com.github.dockerjava.core.command.PullImageResultCallback;
 import com.github.dockerjava.core.command.PushImageResultCallback;
 
@@ -44,6 +58,10 @@
  * Service bean for implementing the ContentService using Nexus and Docker.
  */
 public class ContentServiceImpl implements ContentService {
+	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final String DIGEST_PREFIX = "sha256:";
+
 	@Autowired
 	private Clients clients;
 
@@ -53,24 +71,283 @@ public class ContentServiceImpl implements ContentService {
 	@Autowired
 	private DockerConfig dockerConfig;
 
+	/*
+	 * The most digests of artifact and document content to remember,
+	 * by URI, so each isn't looked up again every time the item is
+	 * listed or compared.  Content written through this service
+	 * forgets the old digest.
+	 */
+	private static final int DIGEST_CACHE_SIZE = 1000;
+
+	private Map<String, String> digests = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > DIGEST_CACHE_SIZE;
+		}
+	});
+
+	private String getDigest(String uri, Supplier<String> lookup) {
+		String ret = digests.get(uri);
+		if (ret == null && (ret = lookup.get()) != null) {
+			digests.put(uri, ret);
+		}
+		return ret;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported", nsae);
+		}
+	}
+
+	private static String toDigest(MessageDigest md) {
+		StringBuilder sb = new StringBuilder(DIGEST_PREFIX);
+		for (byte b: md.digest()) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Nexus computes the checksum of content as it is uploaded, so
+	 * nothing has to be read to get it.
+	 */
+	private static String toDigest(String checksum) {
+		return checksum == null || checksum.isEmpty()? null: DIGEST_PREFIX + checksum;
+	}
+
+	/*
+	 * Wait for a Docker operation to complete, giving up after the
+	 * configured timeout.
+	 */
+	private void awaitCompletion(DockerClient docker, ResultCallbackTemplate<?, ?> callback, String operation) throws IOException {
+		int timeout = dockerConfig.getTimeout();
+		try {
+			if (timeout <= 0) {
+				callback.awaitCompletion();
+			} else if (!callback.awaitCompletion(timeout, TimeUnit.SECONDS)) {
+				clients.dockerFailed(docker);
+				throw new IOException("Timed out waiting for Docker " + operation + " to complete");
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for Docker " + operation + " to complete", ie);
+		}
+	}
+
+	/*
+	 * Errors reported by the Docker host show it is still responding.
+	 * Anything else, like an I/O timeout, may mean it has stopped.
+	 */
+	private void failed(DockerClient docker, RuntimeException re) {
+		if (!(re instanceof DockerException)) {
+			clients.dockerFailed(docker);
+		}
+	}
+
+	/*
+	 * Get the registry client, if images are moved directly to and from
+	 * the registry, and the image is (or is to be) in that registry.
+	 */
+	private RegistryClient getRegistry(String image) {
+		if (!dockerConfig.isRegistryDirect()) {
+			return null;
+		}
+		RegistryClient ret = clients.getRegistryClient();
+		return ret.getRepository(image) == null? null: ret;
+	}
+
 	@Override
 	public InputStream getArtifactContent(MLPArtifact artifact) {
 		if (!FederationClient.ATC_DOCKER.equals(artifact.getArtifactTypeCode())) {
 			return clients.getNexusClient().getArtifactContent(artifact);
 		}
+		String image = artifact.getUri();
+		RegistryClient registry = getRegistry(image);
+		if (registry != null) {
+			try {
+				return ImageArchive.read(registry, registry.getRepository(image), RegistryClient.getTag(image), image);
+			} catch (IOException ioe) {
+				throw new ResourceAccessException("Error fetching docker artifact " + image, ioe);
+			}
+		}
 		DockerClient docker = clients.getDockerClient();
-		try (PullImageResultCallback pullResult = new PullImageResultCallback()) {
-			docker.pullImageCmd(artifact.getUri()).exec(pullResult);
+		InputStream ret = null;
+		try {
+			try (PullImageResultCallback pullResult = new PullImageResultCallback()) {
+				docker.pullImageCmd(artifact.getUri()).exec(pullResult);
+				awaitCompletion(docker, pullResult, "Pull");
+			} catch (IOException ioe) {
+				throw new ResourceAccessException("Error fetching docker artifact " + artifact.getUri(), ioe);
+			}
 			try {
-				pullResult.awaitCompletion();
-			} catch (InterruptedException ie) {
-				Thread.currentThread().interrupt();
-				throw new IOException("Interrupted while waiting for Docker Pull to complete", ie);
+				ret = releasing(docker, docker.saveImageCmd(artifact.getUri()).exec());
+			} catch (RuntimeException re) {
+				failed(docker, re);
+				throw re;
 			}
+			return ret;
+		} finally {
+			if (ret == null) {
+				clients.releaseDockerClient(docker);
+			}
+		}
+	}
+
+	/*
+	 * Release a Docker client once content read with it is closed.
+	 */
+	private InputStream releasing(DockerClient docker, InputStream is) {
+		return new FilterInputStream(is) {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					super.close();
+				} finally {
+					clients.releaseDockerClient(docker);
+				}
+			}
+		};
+	}
+
+	/*
+	 * The length of an image saved by a Docker host isn't known until
+	 * it has all been read, so ranges are never requested of one, and
+	 * only images read directly from the registry can be read part way
+	 * through.
+	 */
+	@Override
+	public InputStream getArtifactContent(MLPArtifact artifact, long offset) {
+		if (!FederationClient.ATC_DOCKER.equals(artifact.getArtifactTypeCode())) {
+			return clients.getNexusClient().getArtifactContent(artifact, offset);
+		}
+		String image = artifact.getUri();
+		RegistryClient registry = getRegistry(image);
+		if (registry == null) {
+			if (offset != 0) {
+				throw new IllegalArgumentException("Docker artifact " + image + " can only be read from the start");
+			}
+			return getArtifactContent(artifact);
+		}
+		try {
+			return ImageArchive.describe(registry, registry.getRepository(image), RegistryClient.getTag(image), image).open(offset);
 		} catch (IOException ioe) {
-			throw new ResourceAccessException("Error fetching docker artifact " + artifact.getUri(), ioe);
+			throw new ResourceAccessException("Error fetching docker artifact " + image, ioe);
 		}
-		return docker.saveImageCmd(artifact.getUri()).exec();
+	}
+
+	@Override
+	public Long getArtifactLength(MLPArtifact artifact) {
+		if (!FederationClient.ATC_DOCKER.equals(artifact.getArtifactTypeCode())) {
+			return artifact.getSize();
+		}
+		String image = artifact.getUri();
+		RegistryClient registry = getRegistry(image);
+		if (registry == null) {
+			return null;
+		}
+		try {
+			return ImageArchive.describe(registry, registry.getRepository(image), RegistryClient.getTag(image), image).getLength();
+		} catch (Exception ex) {
+			log.warn("Unable to get length of artifact {}: {}", artifact.getArtifactId(), ex.toString());
+			return null;
+		}
+	}
+
+	@Override
+	public byte[] getArtifactManifest(MLPArtifact artifact) {
+		if (!FederationClient.ATC_DOCKER.equals(artifact.getArtifactTypeCode())) {
+			return null;
+		}
+		String image = artifact.getUri();
+		RegistryClient registry = getRegistry(image);
+		return registry == null? null: registry.getManifest(registry.getRepository(image), RegistryClient.getTag(image));
+	}
+
+	@Override
+	public InputStream getArtifactBlob(MLPArtifact artifact, String digest, long offset) {
+		String image = artifact.getUri();
+		RegistryClient registry = clients.getRegistryClient();
+		return registry.getBlob(registry.getRepository(image), digest, offset);
+	}
+
+	@Override
+	public boolean putArtifactLayers(MLPArtifact artifact, Supplier<byte[]> manifest, Function<String, InputStream> blobs) {
+		String target = artifact.getDescription();
+		RegistryClient registry = getRegistry(target);
+		if (registry == null) {
+			return false;
+		}
+		byte[] content = manifest.get();
+		if (content == null) {
+			return false;
+		}
+		try {
+			ImageArchive.write(registry, registry.getRepository(target), RegistryClient.getTag(target), content, blobs);
+		} catch (IOException ioe) {
+			throw new ResourceAccessException("Error pushing docker artifact " + artifact.getUri(), ioe);
+		}
+		digests.remove(target);
+		return true;
+	}
+
+	/*
+	 * The image ID of a Docker image is only looked up when it can be
+	 * read from its manifest in the registry, rather than asking the
+	 * Docker daemon.
+	 */
+	@Override
+	public String getArtifactDigest(MLPArtifact artifact) {
+		if (artifact.getUri() == null) {
+			return null;
+		}
+		try {
+			if (FederationClient.ATC_DOCKER.equals(artifact.getArtifactTypeCode())) {
+				String image = artifact.getUri();
+				RegistryClient registry = getRegistry(image);
+				return registry == null? null: getDigest(image, () -> {
+					try {
+						return ImageArchive.getImageId(registry, registry.getRepository(image), RegistryClient.getTag(image));
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+				});
+			}
+			return getDigest(artifact.getUri(), () -> toDigest(clients.getNexusClient().getArtifactChecksum(artifact)));
+		} catch (Exception ex) {
+			log.warn("Unable to get digest of artifact {}: {}", artifact.getArtifactId(), ex.toString());
+			return null;
+		}
+	}
+
+	@Override
+	public String getDocumentDigest(MLPDocument document) {
+		if (document.getUri() == null) {
+			return null;
+		}
+		try {
+			return getDigest(document.getUri(), () -> toDigest(clients.getNexusClient().getDocumentChecksum(document)));
+		} catch (Exception ex) {
+			log.warn("Unable to get digest of document {}: {}", document.getDocumentId(), ex.toString());
+			return null;
+		}
+	}
+
+	@Override
+	public String getPictureDigest(byte[] picture) {
+		MessageDigest md = newDigest();
+		if (picture != null) {
+			md.update(picture);
+		}
+		return toDigest(md);
 	}
 
 	@Override
@@ -78,6 +355,11 @@ public InputStream getDocumentContent(MLPDocument document) {
 		return clients.getNexusClient().getDocumentContent(document);
 	}
 
+	@Override
+	public InputStream getDocumentContent(MLPDocument document, long offset) {
+		return clients.getNexusClient().getDocumentContent(document, offset);
+	}
+
 	@Override
 	public void setArtifactUri(String solutionId, MLPArtifact artifact) {
 		if (FederationClient.ATC_DOCKER.equals(artifact.getArtifactTypeCode())) {
@@ -90,33 +372,57 @@ public void setArtifactUri(String solutionId, MLPArtifact artifact) {
 
 	@Override
 	public void putArtifactContent(MLPArtifact artifact, String tag, InputStream is) {
+		storeArtifactContent(artifact, tag, is);
+		digests.remove(artifact.getUri());
+		digests.remove(artifact.getDescription());
+	}
+
+	private void storeArtifactContent(MLPArtifact artifact, String tag, InputStream is) {
 		if (FederationClient.ATC_DOCKER.equals(artifact.getArtifactTypeCode())) {
-			DockerClient docker = clients.getDockerClient();
-			docker.loadImageCmd(is).exec();
-			List<Image> images = docker.listImagesCmd().exec();
-			Image image = images.stream().filter(i -> i.getRepoTags() != null && Arrays.asList(i.getRepoTags()).contains(tag)).findAny().orElse(null);
-			if (image == null) {
-				throw new BadRequestException(400, "Could not find loaded docker image for " + artifact);
-			}
-			String name = artifact.getDescription().substring(0, artifact.getDescription().lastIndexOf(':'));
-			if (!artifact.getDescription().equals(tag)) {
-				docker.tagImageCmd(image.getId(), name, artifact.getVersion()).exec();
-				docker.removeImageCmd(tag).withForce(true).exec();
+			String target = artifact.getDescription();
+			RegistryClient registry = getRegistry(target);
+			if (registry != null) {
+				try (InputStream archive = is) {
+					ImageArchive.write(registry, registry.getRepository(target), RegistryClient.getTag(target), archive);
+				} catch (IOException ioe) {
+					throw new ResourceAccessException("Error pushing docker artifact " + artifact.getUri(), ioe);
+				}
+				return;
 			}
-			try (PushImageResultCallback result = new PushImageResultCallback()) {
-				AuthConfig auth = (new AuthConfig())
-				    .withUsername(dockerConfig.getRegistryUsername())
-				    .withPassword(dockerConfig.getRegistryPassword())
-				    .withEmail(dockerConfig.getRegistryEmail())
-				    .withRegistryAddress("http://" + dockerConfig.getRegistryUrl() + "/v2/");
+			DockerClient docker = clients.getDockerClient();
+			try {
+				ImageArchive.Scanner archive = new ImageArchive.Scanner(is);
 				try {
-					docker.pushImageCmd(name).withTag(artifact.getVersion()).withAuthConfig(auth).exec(result).awaitCompletion();
-				} catch (InterruptedException ie) {
-					Thread.currentThread().interrupt();
-					throw new IOException("Interrupted while waiting for Docker Push to complete", ie);
+					docker.loadImageCmd(archive).exec();
+				} catch (RuntimeException re) {
+					failed(docker, re);
+					throw re;
 				}
-			} catch (IOException ioe) {
-				throw new ResourceAccessException("Error pushing docker artifact " + artifact.getUri(), ioe);
+				String imageId = archive.getImageId(tag);
+				if (imageId == null) {
+					try {
+						imageId = docker.inspectImageCmd(tag).exec().getId();
+					} catch (NotFoundException nfe) {
+						throw new BadRequestException(400, "Could not find loaded docker image for " + artifact);
+					}
+				}
+				String name = artifact.getDescription().substring(0, artifact.getDescription().lastIndexOf(':'));
+				if (!artifact.getDescription().equals(tag)) {
+					docker.tagImageCmd(imageId, name, artifact.getVersion()).exec();
+					docker.removeImageCmd(tag).withForce(true).exec();
+				}
+				try (PushImageResultCallback result = new PushImageResultCallback()) {
+					AuthConfig auth = (new AuthConfig())
+					    .withUsername(dockerConfig.getRegistryUsername())
+					    .withPassword(dockerConfig.getRegistryPassword())
+					    .withEmail(dockerConfig.getRegistryEmail())
+					    .withRegistryAddress("http://" + dockerConfig.getRegistryUrl() + "/v2/");
+					awaitCompletion(docker, docker.pushImageCmd(name).withTag(artifact.getVersion()).withAuthConfig(auth).exec(result), "Push");
+				} catch (IOException ioe) {
+					throw new ResourceAccessException("Error pushing docker artifact " + artifact.getUri(), ioe);
+				}
+			} finally {
+				clients.releaseDockerClient(docker);
 			}
 		} else {
 			clients.getNexusClient().putArtifactContent(artifact, is);
@@ -131,6 +437,7 @@ public void setDocumentUri(String solutionId, MLPDocument document) {
 	@Override
 	public void putDocumentContent(MLPDocument document, InputStream is) {
 		clients.getNexusClient().putDocumentContent(document, is);
+		digests.remove(document.getUri());
 	}
 
 	private String makeNexusUri(String solutionId, String filename, String name, String version) {
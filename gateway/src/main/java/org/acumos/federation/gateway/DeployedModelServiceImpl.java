@@ -34,7 +34,7 @@
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.util.List;
+import java.util.Iterator;
 
 public class DeployedModelServiceImpl implements DeployedModelService {
 	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
@@ -42,6 +42,9 @@ public class DeployedModelServiceImpl implements DeployedModelService {
 	@Autowired
 	private Clients clients;
 
+	@Autowired
+	private FederationConfig federation;
+
 	private void updateModelParams(String ingressUrl, JsonNode params) throws RestClientException{
 		DeployedModelClient deployedModelClient = clients.getDeployedModelClient(ingressUrl);
 		deployedModelClient.updateModelParams(params);
@@ -51,11 +54,13 @@ private void updateModelParams(String ingressUrl, JsonNode params) throws RestCl
 	public String updateParamsForAllDeployments(ModelData payload) throws IOException {
 		ModelInfo modelInfo = payload.getModel();
 
-		List<MLPSolutionDeployment> mlpSolutionDeployments = Application.cdsAll(pr -> clients.getCDSClient()
-		    .getSolutionDeployments(modelInfo.getSolutionId(), modelInfo.getRevisionId(), pr));
+		Iterator<MLPSolutionDeployment> mlpSolutionDeployments = Application.cdsStream(pr -> clients.getCDSClient()
+		    .getSolutionDeployments(modelInfo.getSolutionId(), modelInfo.getRevisionId(), pr), federation.getCds()).iterator();
+		int total = 0;
 		int totalFailure = 0;
-		for (MLPSolutionDeployment mlpSolutionDeployment : mlpSolutionDeployments) {
-			boolean isUpdateSuccess = updateParamsForDeployment(payload, mlpSolutionDeployment);
+		while (mlpSolutionDeployments.hasNext()) {
+			total++;
+			boolean isUpdateSuccess = updateParamsForDeployment(payload, mlpSolutionDeployments.next());
 			if (!isUpdateSuccess){
 				totalFailure++;
 			}
@@ -63,9 +68,9 @@ public String updateParamsForAllDeployments(ModelData payload) throws IOExceptio
 		String responseMessage="";
 		if(totalFailure > 0){
 			responseMessage = String.format("Params data posted to deployed models,of total {} " +
-			    "deployments failed posting to {} deployments",mlpSolutionDeployments.size(),totalFailure);
+			    "deployments failed posting to {} deployments",total,totalFailure);
 		}else {
-			responseMessage = String.format("Params data posted to deployed models, total {} deployments updated", mlpSolutionDeployments.size());
+			responseMessage = String.format("Params data posted to deployed models, total {} deployments updated", total);
 		}
 		return responseMessage;
 	}
@@ -20,14 +20,27 @@
  */
 package org.acumos.federation.gateway;
 
+import java.io.InputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
-import java.util.concurrent.Callable;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
 import io.swagger.annotations.ApiOperation;
 
 import org.slf4j.Logger;
@@ -36,7 +49,11 @@
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -44,9 +61,13 @@
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriTemplateHandler;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
@@ -57,6 +78,7 @@
 import org.acumos.cds.domain.MLPSolutionRevision;
 import org.acumos.cds.domain.MLPArtifact;
 import org.acumos.cds.domain.MLPDocument;
+import org.acumos.cds.transport.RestPageResponse;
 
 import org.acumos.federation.client.ClientBase;
 import org.acumos.federation.client.config.ClientConfig;
@@ -65,6 +87,7 @@
 import org.acumos.federation.client.data.Document;
 import org.acumos.federation.client.data.JsonResponse;
 import org.acumos.federation.client.data.ModelData;
+import org.acumos.federation.client.data.Solution;
 import org.acumos.federation.client.data.SolutionRevision;
 
 /**
@@ -75,6 +98,7 @@
 @RequestMapping(produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
 public class FederationController {
 	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private static final int MAX_PAGE_SIZE = 1000;
 
 	@Autowired
 	private FederationConfig federation;
@@ -97,6 +121,15 @@ public class FederationController {
 	@Autowired
 	private DeployedModelService deployedModelService;
 
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Autowired
+	private ContentExecutor contentExecutor;
+
+	@Autowired
+	private MetadataCache metadataCache;
+
 	private UriTemplateHandler originBuilder;
 
 	private String makeOrigin(String uri, Object... params) {
@@ -137,6 +170,7 @@ private static String makeFilename(String uri, boolean isnexus) {
 
 	private void markOrigin(MLPArtifact art) {
 		((Artifact)art).setFilename(makeFilename(art.getUri(), !FederationClient.ATC_DOCKER.equals(art.getArtifactTypeCode())));
+		((Artifact)art).setDigest(contentService.getArtifactDigest(art));
 		if (!Security.isCurrentPeerLocal()) {
 			if (art.getUri() != null && FederationClient.ATC_DOCKER.equals(art.getArtifactTypeCode())) {
 				art.setDescription(art.getUri());
@@ -147,6 +181,7 @@ private void markOrigin(MLPArtifact art) {
 
 	private void markOrigin(MLPDocument doc) {
 		((Document)doc).setFilename(makeFilename(doc.getUri(), true));
+		((Document)doc).setDigest(contentService.getDocumentDigest(doc));
 		if (!Security.isCurrentPeerLocal()) {
 			doc.setUri(makeOrigin(FederationClient.DOCUMENT_URI, doc.getDocumentId()));
 		}
@@ -200,21 +235,75 @@ public JsonResponse<MLPPeer> unregister() {
 	@ApiOperation(value = "Invoked by Peer Acumos to get a list of visible Catalogs from the local Acumos Instance .", response = MLPCatalog.class, responseContainer = "List")
 	@GetMapping(FederationClient.CATALOGS_URI)
 	@ResponseBody
-	public JsonResponse<List<MLPCatalog>> getCatalogs() {
+	public JsonResponse<List<MLPCatalog>> getCatalogs(WebRequest request) {
 		log.debug("/catalogs");
-		return respond(catalogService.getCatalogs());
+		return validate(request, respond(catalogService.getCatalogs()));
+	}
+
+	@Secured(Security.ROLE_PEER)
+	@ApiOperation(value = "Invoked by Peer Acumos to get a page of the list of visible Catalogs from the local Acumos Instance .", response = MLPCatalog.class, responseContainer = "List")
+	@GetMapping(value = FederationClient.CATALOGS_URI, params = "page")
+	@ResponseBody
+	public JsonResponse<List<MLPCatalog>> getCatalogs(
+	    WebRequest request,
+	    @RequestParam(value="page", required = true) int page,
+	    @RequestParam(value="size", defaultValue = "100") int size) {
+		log.debug("/catalogs?page={}&size={}", page, size);
+		size = checkPage(page, size);
+		List<MLPCatalog> catalogs = catalogService.getCatalogs();
+		int start = (int)Math.min((long)page * size, catalogs.size());
+		int end = Math.min(start + size, catalogs.size());
+		return validate(request, respondPage(catalogs.subList(start, end), page, size, catalogs.size(), end == catalogs.size()));
 	}
 
 	@Secured(Security.ROLE_PEER)
 	@ApiOperation(value = "Invoked by Peer Acumos to get a list of Published Solutions from the Catalog of the local Acumos Instance .", response = MLPSolution.class, responseContainer = "List")
 	@GetMapping(FederationClient.SOLUTIONS_URI)
 	@ResponseBody
-	public JsonResponse<List<MLPSolution>> getSolutions(@RequestParam(value="catalogId", required = true) String catalogId) {
+	public ResponseEntity<StreamingResponseBody> getSolutions(@RequestParam(value="catalogId", required = true) String catalogId) {
 		log.debug("/solutions?catalogId={}", catalogId);
 		if (!catalogService.isCatalogAllowed(catalogId)) {
 			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No catalog with id " + catalogId);
 		}
-		List<MLPSolution> ret = catalogService.getSolutions(catalogId);
+		return respondStreaming(action -> catalogService.forEachSolution(catalogId, sol -> {
+			markOrigin(sol);
+			action.accept(sol);
+		}));
+	}
+
+	@Secured(Security.ROLE_PEER)
+	@ApiOperation(value = "Invoked by Peer Acumos to get a page of the list of Published Solutions from the Catalog of the local Acumos Instance .", response = MLPSolution.class, responseContainer = "List")
+	@GetMapping(value = FederationClient.SOLUTIONS_URI, params = "page")
+	@ResponseBody
+	public JsonResponse<List<MLPSolution>> getSolutions(
+	    WebRequest request,
+	    @RequestParam(value="catalogId", required = true) String catalogId,
+	    @RequestParam(value="page", required = true) int page,
+	    @RequestParam(value="size", defaultValue = "100") int size) {
+		log.debug("/solutions?catalogId={}&page={}&size={}", catalogId, page, size);
+		size = checkPage(page, size);
+		if (!catalogService.isCatalogAllowed(catalogId)) {
+			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No catalog with id " + catalogId);
+		}
+		RestPageResponse<MLPSolution> ret = catalogService.getSolutions(catalogId, page, size);
+		for (MLPSolution sol: ret.getContent()) {
+			markOrigin(sol);
+		}
+		return validate(request, respondPage(ret.getContent(), page, size, ret.getTotalElements(), ret.isLast()));
+	}
+
+	@Secured(Security.ROLE_PEER)
+	@ApiOperation(value = "Invoked by Peer Acumos to get a list of Published Solutions, changed since a given time, from the Catalog of the local Acumos Instance .", response = MLPSolution.class, responseContainer = "List")
+	@GetMapping(FederationClient.CHANGES_URI)
+	@ResponseBody
+	public JsonResponse<List<MLPSolution>> getSolutionChanges(
+	    @RequestParam(value="catalogId", required = true) String catalogId,
+	    @RequestParam(value="since", required = true) Instant since) {
+		log.debug("/changes?catalogId={}&since={}", catalogId, since);
+		if (!catalogService.isCatalogAllowed(catalogId)) {
+			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No catalog with id " + catalogId);
+		}
+		List<MLPSolution> ret = catalogService.getSolutionChanges(catalogId, since);
 		for (MLPSolution sol: ret) {
 			markOrigin(sol);
 		}
@@ -225,27 +314,53 @@ public JsonResponse<List<MLPSolution>> getSolutions(@RequestParam(value="catalog
 	@ApiOperation(value = "Invoked by Peer Acumos to get a list detailed solution information from the Catalog of the local Acumos Instance .", response = MLPSolution.class)
 	@GetMapping(FederationClient.SOLUTION_URI)
 	@ResponseBody
-	public JsonResponse<MLPSolution> getSolution(@PathVariable("solutionId") String solutionId) {
+	public JsonResponse<MLPSolution> getSolution(
+	    WebRequest request,
+	    @PathVariable("solutionId") String solutionId,
+	    @RequestParam(value="picture", required=false, defaultValue="true") boolean picture) {
 		log.debug("/solutions/{}", solutionId);
 		MLPSolution ret = null;
-		if (!catalogService.isSolutionAllowed(solutionId) || (ret = catalogService.getSolution(solutionId)) == null) {
+		if (!catalogService.isSolutionAllowed(solutionId) || (ret = metadataCache.getSolution(solutionId, picture, () -> {
+			MLPSolution sol = catalogService.getSolution(solutionId, picture);
+			if (sol != null) {
+				markOrigin(sol);
+				if (!picture) {
+					((Solution)sol).setPictureDigest(catalogService.getPictureDigest(sol));
+				}
+			}
+			return sol;
+		})) == null) {
 			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No solution with id " + solutionId);
 		}
-		markOrigin(ret);
-		return respond(ret);
+		return validate(request, respond(ret));
+	}
+
+	@Secured(Security.ROLE_PEER)
+	@ApiOperation(value = "Invoked by Peer Acumos to get the picture for a solution in the Catalog of the local Acumos Instance .", response = byte[].class)
+	@GetMapping(FederationClient.PICTURE_URI)
+	public ResponseEntity<byte[]> getSolutionPicture(@PathVariable("solutionId") String solutionId) {
+		log.debug("/solutions/{}/picture", solutionId);
+		if (!catalogService.isSolutionAllowed(solutionId)) {
+			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No solution with id " + solutionId);
+		}
+		byte[] ret = catalogService.getPicture(solutionId);
+		if (ret == null || ret.length == 0) {
+			return ResponseEntity.noContent().build();
+		}
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(ret);
 	}
 
 	@Secured(Security.ROLE_PEER)
 	@ApiOperation(value = "Invoked by Peer Acumos to get a list of Solution Revision from the Catalog of the local Acumos Instance .", response = MLPSolutionRevision.class, responseContainer = "List")
 	@GetMapping(FederationClient.REVISIONS_URI)
 	@ResponseBody
-	public JsonResponse<List<MLPSolutionRevision>> getRevisions(@PathVariable("solutionId") String solutionId) {
+	public JsonResponse<List<MLPSolutionRevision>> getRevisions(WebRequest request, @PathVariable("solutionId") String solutionId) {
 		log.debug("/solutions/{}/revisions", solutionId);
 		List<MLPSolutionRevision> ret = null;
 		if (!catalogService.isSolutionAllowed(solutionId) || (ret = catalogService.getRevisions(solutionId)).isEmpty()) {
 			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No solution with id " + solutionId);
 		}
-		return respond(ret);
+		return validate(request, respond(ret));
 	}
 
 	@Secured(Security.ROLE_PEER)
@@ -253,24 +368,28 @@ public JsonResponse<List<MLPSolutionRevision>> getRevisions(@PathVariable("solut
 	@GetMapping(FederationClient.REVISION_URI)
 	@ResponseBody
 	public JsonResponse<MLPSolutionRevision> getRevision(
+	    WebRequest request,
 	    @PathVariable("solutionId") String solutionId,
 	    @PathVariable("revisionId") String revisionId,
 	    @RequestParam(value = "catalogId", required = false) String catalogId) {
 		log.debug("/solutions/{}/revisions/{}?catalogId={}", solutionId, revisionId, catalogId);
-		if (catalogId != null && !catalogService.isCatalogAllowed(catalogId)) {
-			catalogId = null;
-		}
-		SolutionRevision ret = (SolutionRevision)catalogService.getRevision(revisionId, catalogId);
+		String revCatalogId = catalogId != null && catalogService.isCatalogAllowed(catalogId)? catalogId: null;
+		SolutionRevision ret = (SolutionRevision)metadataCache.getRevision(revisionId, revCatalogId, () -> {
+			SolutionRevision rev = (SolutionRevision)catalogService.getRevision(revisionId, revCatalogId);
+			if (rev != null) {
+				for (MLPArtifact art: rev.getArtifacts()) {
+					markOrigin(art);
+				}
+				for (MLPDocument doc: rev.getDocuments()) {
+					markOrigin(doc);
+				}
+			}
+			return rev;
+		});
 		if (ret == null || !catalogService.isSolutionAllowed(ret.getSolutionId())) {
 			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No revision with id " + revisionId);
 		}
-		for (MLPArtifact art: ret.getArtifacts()) {
-			markOrigin(art);
-		}
-		for (MLPDocument doc: ret.getDocuments()) {
-			markOrigin(doc);
-		}
-		return respond(ret);
+		return validate(request, respond(ret));
 	}
 
 	@Secured(Security.ROLE_PEER)
@@ -309,28 +428,120 @@ public JsonResponse<List<MLPDocument>> getDocuments(
 		return respond(ret);
 	}
 
+	/*
+	 * The digest of the content, if known, is sent as its ETag.  A
+	 * range is only sent if the length of the content is known and,
+	 * if the peer sent If-Range, the content is still what the peer
+	 * started reading.  Otherwise, all the content is sent.  The
+	 * content is opened at the start of the range, so nothing before
+	 * it is held or sent.
+	 */
+	private ResponseEntity<Resource> sendContent(String range, String ifRange, String digest, Long length, LongFunction<InputStream> content) {
+		HttpHeaders headers = new HttpHeaders();
+		String etag = null;
+		if (digest != null) {
+			etag = "\"" + digest + "\"";
+			headers.setETag(etag);
+		}
+		if (range == null || length == null || (ifRange != null && !ifRange.equals(etag))) {
+			return ResponseEntity.ok().headers(headers).body(new InputStreamResource(content.apply(0)));
+		}
+		List<HttpRange> ranges;
+		try {
+			ranges = HttpRange.parseRanges(range);
+		} catch (IllegalArgumentException iae) {
+			ranges = Collections.emptyList();
+		}
+		if (ranges.size() != 1) {
+			throw new BadRequestException(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "Only a single byte range is supported");
+		}
+		long start = ranges.get(0).getRangeStart(length);
+		long end = ranges.get(0).getRangeEnd(length);
+		if (start >= length || start > end) {
+			throw new BadRequestException(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "Range " + range + " is not satisfiable");
+		}
+		return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+		    .headers(headers)
+		    .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length)
+		    .contentLength(end - start + 1)
+		    .body(new InputStreamResource(ByteStreams.limit(content.apply(start), end - start + 1)));
+	}
+
 	@Secured(Security.ROLE_PEER)
 	@ApiOperation(value = "API to download artifact content", response = Resource.class, code = 200)
 	@GetMapping(value = FederationClient.ARTIFACT_URI, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
 	@ResponseBody
-	public Callable<Resource> getArtifactContent(@PathVariable("artifactId") String artifactId) {
+	public DeferredResult<ResponseEntity<Resource>> getArtifactContent(
+	    @PathVariable("artifactId") String artifactId,
+	    @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+	    @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange) {
 		log.debug("/artifacts/{}/content", artifactId);
 		if (!catalogService.isArtifactAllowed(artifactId)) {
 			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No artifact with id " + artifactId);
 		}
-		return () -> new InputStreamResource(contentService.getArtifactContent(catalogService.getArtifact(artifactId)));
+		return contentExecutor.submit(Security.getCurrentPeerId(), () -> {
+			MLPArtifact artifact = catalogService.getArtifact(artifactId);
+			return sendContent(range, ifRange, contentService.getArtifactDigest(artifact), contentService.getArtifactLength(artifact), offset -> contentService.getArtifactContent(artifact, offset));
+		});
+	}
+
+	@Secured(Security.ROLE_PEER)
+	@ApiOperation(value = "API to download the manifest of a Docker image artifact", response = byte[].class, code = 200)
+	@GetMapping(FederationClient.ARTIFACT_MANIFEST_URI)
+	public ResponseEntity<byte[]> getArtifactManifest(@PathVariable("artifactId") String artifactId) {
+		log.debug("/artifacts/{}/manifest", artifactId);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(getManifest(artifactId));
+	}
+
+	@Secured(Security.ROLE_PEER)
+	@ApiOperation(value = "API to download a layer or the configuration of a Docker image artifact", response = Resource.class, code = 200)
+	@GetMapping(value = FederationClient.ARTIFACT_BLOB_URI, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	@ResponseBody
+	public DeferredResult<ResponseEntity<Resource>> getArtifactBlob(
+	    @PathVariable("artifactId") String artifactId,
+	    @PathVariable("digest") String digest,
+	    @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+	    @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange) throws IOException {
+		log.debug("/artifacts/{}/blobs/{}", artifactId, digest);
+		byte[] manifest = getManifest(artifactId);
+		if (!ImageArchive.getBlobs(manifest).contains(digest)) {
+			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No blob " + digest + " in artifact " + artifactId);
+		}
+		Long length = ImageArchive.getBlobSize(manifest, digest);
+		return contentExecutor.submit(Security.getCurrentPeerId(), () -> sendContent(range, ifRange, digest, length, offset -> contentService.getArtifactBlob(catalogService.getArtifact(artifactId), digest, offset)));
+	}
+
+	/*
+	 * Only Docker images, held in a registry that is accessed directly,
+	 * can be sent a layer at a time.
+	 */
+	private byte[] getManifest(String artifactId) {
+		byte[] ret = null;
+		if (catalogService.isArtifactAllowed(artifactId)) {
+			ret = contentService.getArtifactManifest(catalogService.getArtifact(artifactId));
+		}
+		if (ret == null) {
+			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No manifest for artifact " + artifactId);
+		}
+		return ret;
 	}
 
 	@Secured(Security.ROLE_PEER)
 	@ApiOperation(value = "API to download document content", response = Resource.class, code = 200)
 	@GetMapping(value = FederationClient.DOCUMENT_URI, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
 	@ResponseBody
-	public Resource getDocumentContent(@PathVariable("documentId") String documentId) {
+	public DeferredResult<ResponseEntity<Resource>> getDocumentContent(
+	    @PathVariable("documentId") String documentId,
+	    @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+	    @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange) {
 		log.debug("/documents/{}/content", documentId);
 		if (!catalogService.isDocumentAllowed(documentId)) {
 			throw new BadRequestException(HttpServletResponse.SC_NOT_FOUND, "No document with id " + documentId);
 		}
-		return new InputStreamResource(contentService.getDocumentContent(catalogService.getDocument(documentId)));
+		return contentExecutor.submit(Security.getCurrentPeerId(), () -> {
+			MLPDocument document = catalogService.getDocument(documentId);
+			return sendContent(range, ifRange, contentService.getDocumentDigest(document), document.getSize(), offset -> contentService.getDocumentContent(document, offset));
+		});
 	}
 
 	private <T> JsonResponse<T> respond(T content) {
@@ -339,6 +550,76 @@ private <T> JsonResponse<T> respond(T content) {
 		return ret;
 	}
 
+	private <T> JsonResponse<List<T>> respondPage(List<T> content, int page, int size, long totalElements, boolean last) {
+		JsonResponse<List<T>> ret = respond(content);
+		ret.setPage(page);
+		ret.setSize(size);
+		ret.setTotalElements(totalElements);
+		ret.setLast(last);
+		return ret;
+	}
+
+	/*
+	 * Tag a response with a strong entity tag, computed from its JSON
+	 * form, and, if the peer already has that version, send 304 (Not
+	 * Modified), with no body, instead.
+	 *
+	 * This serializes the response twice, once here, and again if it
+	 * is sent.  The JSON is hashed as it is written, rather than kept,
+	 * so the cost is CPU time, not another copy of the response.
+	 */
+	private <T> JsonResponse<T> validate(WebRequest request, JsonResponse<T> response) {
+		String etag;
+		try {
+			Hasher hasher = Hashing.md5().newHasher();
+			mapper.writeValue(Funnels.asOutputStream(hasher), response);
+			etag = "\"0" + hasher.hash() + "\"";
+		} catch (IOException ioe) {
+			log.warn("Unable to compute entity tag: {}", ioe.toString());
+			return response;
+		}
+		return request.checkNotModified(etag)? null: response;
+	}
+
+	/*
+	 * Validate a requested page and return the page size to use.
+	 */
+	private static int checkPage(int page, int size) {
+		if (page < 0 || size < 1) {
+			throw new BadRequestException(HttpServletResponse.SC_BAD_REQUEST, "Invalid page " + page + " of size " + size);
+		}
+		return Math.min(size, MAX_PAGE_SIZE);
+	}
+
+	/*
+	 * Send a JsonResponse whose content is a list, writing each element
+	 * as soon as the source produces it, instead of gathering the list
+	 * first.  Since the response is already committed by the time the
+	 * source runs, a failure part way through leaves the client with
+	 * truncated (invalid) JSON, rather than an error status.
+	 */
+	private ResponseEntity<StreamingResponseBody> respondStreaming(Consumer<Consumer<Object>> source) {
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(out -> {
+			JsonGenerator gen = mapper.getFactory().createGenerator(out);
+			gen.writeStartObject();
+			gen.writeArrayFieldStart("content");
+			try {
+				source.accept(item -> {
+					try {
+						gen.writeObject(item);
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+				});
+			} catch (UncheckedIOException uioe) {
+				throw uioe.getCause();
+			}
+			gen.writeEndArray();
+			gen.writeEndObject();
+			gen.flush();
+		});
+	}
+
 	@ExceptionHandler(BadRequestException.class)
 	@ResponseBody
 	public JsonResponse<Void> badRequestError(HttpServletRequest request, HttpServletResponse response, BadRequestException badRequest) {
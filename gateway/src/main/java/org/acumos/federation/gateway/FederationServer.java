@@ -49,6 +49,11 @@ public FederationController federationController() {
 		return new FederationController();
 	}
 
+	@Bean
+	public ContentExecutor contentExecutor() {
+		return new ContentExecutor();
+	}
+
 	@Bean
 	WebServerFactoryCustomizer<ConfigurableServletWebServerFactory> externalServer() {
 		return server -> Application.configureServer(server, this.federation);
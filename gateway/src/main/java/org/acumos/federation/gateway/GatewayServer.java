@@ -58,4 +58,9 @@ public WebServerFactoryCustomizer<ConfigurableServletWebServerFactory> localServ
 	public SubscriptionPoller subscriptionPoller() {
 		return new SubscriptionPoller();
 	}
+
+	@Bean
+	public PostSyncExecutor postSyncExecutor() {
+		return new PostSyncExecutor();
+	}
 }
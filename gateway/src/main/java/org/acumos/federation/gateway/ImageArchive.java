@@ -0,0 +1,733 @@
+/*-
+ * ===============LICENSE_START=======================================================
+ * Acumos
+ * ===================================================================================
+ * Copyright (C) 2019 AT&T Intellectual Property & Tech Mahindra. All rights reserved.
+ * ===================================================================================
+ * This Acumos software file is distributed by AT&T and Tech Mahindra
+ * under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ===============LICENSE_END=========================================================
+ */
+package org.acumos.federation.gateway;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.google.common.io.ByteStreams;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarUtils;
+import org.apache.commons.compress.archivers.zip.ZipEncodingHelper;
+
+/**
+ * Converts between Docker images, in a registry, and the archive form,
+ * produced by "docker save" and accepted by "docker load", that is
+ * sent to peers, without going through a Docker host.
+ *
+ * Archives are read and written as they are sent, so images never
+ * need to be held in memory or on disk.  Archives produced here hold
+ * the layers in the compressed form the registry stores them in, which
+ * "docker load" accepts, and are named by the digests of those layers,
+ * so, when such an archive is written back to a registry, layers the
+ * registry already has are skipped.
+ */
+public class ImageArchive {
+	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final String MANIFEST = "manifest.json";
+	private static final String LAYER = "/layer.tar";
+	private static final String BLOBS = "blobs/";
+	private static final String DIGEST_PREFIX = "sha256:";
+	private static final int BLOCK = 512;
+	/*
+	 * The largest file in an archive, other than a layer, to hold in
+	 * memory until the archive's manifest shows what it is.
+	 */
+	private static final long MAX_BUFFERED = 1 << 20;
+
+	private ImageArchive() {
+	}
+
+	/*
+	 * Reads a series of streams, each opened only when the previous
+	 * one has been read.
+	 */
+	private static class Concatenation extends InputStream {
+		private Iterator<Supplier<InputStream>> parts;
+		private InputStream current;
+
+		public Concatenation(List<Supplier<InputStream>> parts) {
+			this.parts = parts.iterator();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buf = new byte[1];
+			int len;
+			while ((len = read(buf, 0, 1)) == 0) {
+			}
+			return len == -1? -1: buf[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException {
+			while (true) {
+				if (current == null) {
+					if (!parts.hasNext()) {
+						return -1;
+					}
+					current = parts.next().get();
+				}
+				int ret = current.read(buf, off, len);
+				if (ret != -1) {
+					return ret;
+				}
+				current.close();
+				current = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (current != null) {
+				current.close();
+				current = null;
+			}
+		}
+	}
+
+	/*
+	 * Reads exactly the expected number of bytes from a stream, so a
+	 * short blob fails the transfer, rather than corrupting the archive.
+	 */
+	private static InputStream exactly(InputStream is, long size) {
+		InputStream limited = ByteStreams.limit(is, size);
+		return new InputStream() {
+			private long remaining = size;
+
+			@Override
+			public int read() throws IOException {
+				byte[] buf = new byte[1];
+				int len;
+				while ((len = read(buf, 0, 1)) == 0) {
+				}
+				return len == -1? -1: buf[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] buf, int off, int len) throws IOException {
+				int ret = limited.read(buf, off, len);
+				if (ret == -1 && remaining != 0) {
+					throw new EOFException("Blob ended " + remaining + " bytes early");
+				}
+				if (ret > 0) {
+					remaining -= ret;
+				}
+				return ret;
+			}
+
+			@Override
+			public void close() throws IOException {
+				is.close();
+			}
+		};
+	}
+
+	/*
+	 * A piece of an archive, of known size, that can be opened part
+	 * way through.
+	 */
+	private static class Part {
+		private long size;
+		private LongFunction<InputStream> content;
+
+		public Part(long size, LongFunction<InputStream> content) {
+			this.size = size;
+			this.content = content;
+		}
+	}
+
+	private static void addBytes(List<Part> parts, byte[] content) {
+		parts.add(new Part(content.length, off -> new ByteArrayInputStream(content, (int)off, content.length - (int)off)));
+	}
+
+	private static void addFile(List<Part> parts, String name, long size, LongFunction<InputStream> content) {
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(size);
+		byte[] header = new byte[BLOCK];
+		try {
+			entry.writeEntryHeader(header, ZipEncodingHelper.getZipEncoding("UTF-8"), true);
+		} catch (IOException ioe) {
+			throw new IllegalArgumentException("Invalid archive file name " + name, ioe);
+		}
+		addBytes(parts, header);
+		parts.add(new Part(size, off -> exactly(content.apply(off), size - off)));
+		int padding = (int)((BLOCK - size % BLOCK) % BLOCK);
+		if (padding != 0) {
+			addBytes(parts, new byte[padding]);
+		}
+	}
+
+	private static void addFile(List<Part> parts, String name, byte[] content) {
+		addFile(parts, name, content.length, off -> new ByteArrayInputStream(content, (int)off, content.length - (int)off));
+	}
+
+	/**
+	 * An image, in a registry, in archive form.
+	 *
+	 * The length of the archive is known before any of it is read,
+	 * and it can be read starting part way through, without fetching
+	 * any of the layers before that point, so an interrupted transfer
+	 * can be resumed.
+	 */
+	public static class Archive {
+		private String imageId;
+		private List<Part> parts;
+		private long length;
+
+		private Archive(String imageId, List<Part> parts) {
+			this.imageId = imageId;
+			this.parts = parts;
+			for (Part part: parts) {
+				length += part.size;
+			}
+		}
+
+		/**
+		 * Get the ID of the image.
+		 *
+		 * @return The image ID, as "sha256:" followed by the hex encoded hash.
+		 */
+		public String getImageId() {
+			return imageId;
+		}
+
+		/**
+		 * Get the length of the archive.
+		 *
+		 * @return The length in bytes.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Read the archive, starting part way through.
+		 *
+		 * The configuration and layers are fetched as the archive
+		 * is read.
+		 *
+		 * @param offset The number of bytes, at the start, to leave out.
+		 * @return An InputStream for reading the rest of the archive.
+		 */
+		public InputStream open(long offset) {
+			List<Supplier<InputStream>> ret = new ArrayList<>();
+			long skip = offset;
+			for (Part part: parts) {
+				if (skip >= part.size) {
+					skip -= part.size;
+					continue;
+				}
+				long start = skip;
+				ret.add(() -> part.content.apply(start));
+				skip = 0;
+			}
+			return new Concatenation(ret);
+		}
+	}
+
+	/**
+	 * Watches an archive, as it is read by something else, such as
+	 * a Docker host loading it, for the archive's manifest, which
+	 * shows the ID of the image the archive holds.
+	 */
+	public static class Scanner extends FilterInputStream {
+		private byte[] header = new byte[BLOCK];
+		private int headerLength;
+		private long remaining;
+		private int padding;
+		private ByteArrayOutputStream manifest;
+		private byte[] contents;
+		private boolean done;
+
+		/**
+		 * Watch an archive.
+		 *
+		 * @param archive The archive to watch.
+		 */
+		public Scanner(InputStream archive) {
+			super(archive);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int ret = super.read();
+			if (ret != -1) {
+				scan(new byte[] { (byte)ret }, 0, 1);
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException {
+			int ret = super.read(buf, off, len);
+			if (ret > 0) {
+				scan(buf, off, ret);
+			}
+			return ret;
+		}
+
+		/*
+		 * Skipped bytes have to be seen, too, so they are read.
+		 */
+		@Override
+		public long skip(long len) throws IOException {
+			byte[] buf = new byte[(int)Math.min(len, 8192)];
+			int ret = read(buf, 0, buf.length);
+			return ret == -1? 0: ret;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void scan(byte[] buf, int off, int len) {
+			while (len > 0 && !done) {
+				if (remaining > 0) {
+					int count = (int)Math.min(remaining, len);
+					if (manifest != null) {
+						manifest.write(buf, off, (int)Math.min(count, Math.max(remaining - padding, 0)));
+					}
+					remaining -= count;
+					off += count;
+					len -= count;
+					if (remaining == 0 && manifest != null) {
+						contents = manifest.toByteArray();
+						done = true;
+					}
+					continue;
+				}
+				int count = Math.min(BLOCK - headerLength, len);
+				System.arraycopy(buf, off, header, headerLength, count);
+				headerLength += count;
+				off += count;
+				len -= count;
+				if (headerLength < BLOCK) {
+					return;
+				}
+				headerLength = 0;
+				if (header[0] == 0) {
+					continue;
+				}
+				if (!TarUtils.verifyCheckSum(header)) {
+					done = true;
+					return;
+				}
+				TarArchiveEntry entry;
+				try {
+					entry = new TarArchiveEntry(header);
+				} catch (IllegalArgumentException iae) {
+					done = true;
+					return;
+				}
+				long size = entry.getSize();
+				padding = (int)((BLOCK - size % BLOCK) % BLOCK);
+				remaining = size + padding;
+				if (entry.isFile() && MANIFEST.equals(entry.getName())) {
+					if (size > MAX_BUFFERED) {
+						done = true;
+						return;
+					}
+					manifest = new ByteArrayOutputStream((int)size);
+					if (remaining == 0) {
+						contents = manifest.toByteArray();
+						done = true;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Get the ID of the image in the archive.
+		 *
+		 * @param tag The tag of the image, in case the archive holds more than one.
+		 * @return The image ID, as "sha256:" followed by the hex encoded hash, or null if the archive, as read so far, doesn't show it.
+		 */
+		public String getImageId(String tag) {
+			if (contents == null) {
+				return null;
+			}
+			JsonNode images;
+			try {
+				images = mapper.readTree(contents);
+			} catch (IOException ioe) {
+				log.warn("Unable to parse image archive manifest: {}", ioe.toString());
+				return null;
+			}
+			JsonNode image = images.size() == 1? images.path(0): null;
+			for (JsonNode candidate: images) {
+				for (JsonNode repoTag: candidate.path("RepoTags")) {
+					if (repoTag.asText().equals(tag)) {
+						image = candidate;
+					}
+				}
+			}
+			if (image == null) {
+				return null;
+			}
+			String config = image.path("Config").asText();
+			String hex = config.substring(config.lastIndexOf('/') + 1);
+			if (hex.endsWith(".json")) {
+				hex = hex.substring(0, hex.length() - ".json".length());
+			}
+			return hex.matches("[0-9a-f]{64}")? DIGEST_PREFIX + hex: null;
+		}
+	}
+
+	private static String getHex(String digest) {
+		return digest.startsWith(DIGEST_PREFIX)? digest.substring(DIGEST_PREFIX.length()): digest;
+	}
+
+	private static String getDigest(byte[] content) {
+		try {
+			StringBuilder ret = new StringBuilder(DIGEST_PREFIX);
+			for (byte b: MessageDigest.getInstance("SHA-256").digest(content)) {
+				ret.append(String.format("%02x", b & 0xff));
+			}
+			return ret.toString();
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException("SHA-256 is not supported", nsae);
+		}
+	}
+
+	/*
+	 * Archives name layers by a hash, but, unless the layer is
+	 * compressed, it isn't the hash of anything in the registry.
+	 */
+	private static String getNamedDigest(String file) {
+		String hex = file.endsWith(LAYER)? file.substring(0, file.length() - LAYER.length()): file.substring(file.lastIndexOf('/') + 1);
+		return hex.matches("[0-9a-f]{64}")? DIGEST_PREFIX + hex: null;
+	}
+
+	/*
+	 * Find the file a symbolic link in an archive refers to.  The
+	 * target is relative to the directory holding the link.
+	 */
+	private static String resolveLink(String file, String target) {
+		List<String> path = new ArrayList<>(Arrays.asList(file.split("/")));
+		path.remove(path.size() - 1);
+		if (target.startsWith("/")) {
+			path.clear();
+		}
+		for (String name: target.split("/")) {
+			if (name.isEmpty() || ".".equals(name)) {
+				continue;
+			}
+			if ("..".equals(name)) {
+				if (!path.isEmpty()) {
+					path.remove(path.size() - 1);
+				}
+			} else {
+				path.add(name);
+			}
+		}
+		return String.join("/", path);
+	}
+
+	/*
+	 * Follow symbolic links, giving up if they loop.
+	 */
+	private static String followLinks(Map<String, String> links, String file) {
+		for (int i = 0; i <= links.size() && links.containsKey(file); i++) {
+			file = links.get(file);
+		}
+		return file;
+	}
+
+	private static RegistryClient.Blob putLayer(RegistryClient registry, String repository, String file, InputStream content) throws IOException {
+		BufferedInputStream is = new BufferedInputStream(content, 65536);
+		is.mark(2);
+		boolean compressed = is.read() == 0x1f && is.read() == 0x8b;
+		is.reset();
+		String digest = compressed? getNamedDigest(file): null;
+		if (digest != null) {
+			Long size = registry.getBlobSize(repository, digest);
+			if (size != null) {
+				log.info("Registry already has layer {} of {}", digest, repository);
+				ByteStreams.exhaust(is);
+				return new RegistryClient.Blob(digest, size);
+			}
+		}
+		return registry.putBlob(repository, is, !compressed);
+	}
+
+	private static JsonNode getManifest(RegistryClient registry, String repository, String tag) throws IOException {
+		return mapper.readTree(registry.getManifest(repository, tag));
+	}
+
+	/**
+	 * Get the ID of an image in a registry.
+	 *
+	 * The ID of an image is the digest of its configuration, and is
+	 * the same as the ID given it by a Docker host.
+	 *
+	 * @param registry The registry holding the image.
+	 * @param repository The repository holding the image.
+	 * @param tag The tag of the image.
+	 * @return The image ID, as "sha256:" followed by the hex encoded hash.
+	 * @throws IOException If the manifest can't be parsed.
+	 */
+	public static String getImageId(RegistryClient registry, String repository, String tag) throws IOException {
+		return getManifest(registry, repository, tag).path("config").path("digest").asText(null);
+	}
+
+	/**
+	 * List the blobs, the configuration and layers, making up an image.
+	 *
+	 * @param manifest The image's manifest.
+	 * @return The digests of the configuration, followed by the layers.
+	 * @throws IOException If the manifest can't be parsed.
+	 */
+	public static List<String> getBlobs(byte[] manifest) throws IOException {
+		JsonNode json = mapper.readTree(manifest);
+		List<String> ret = new ArrayList<>();
+		ret.add(json.path("config").path("digest").asText());
+		for (JsonNode layer: json.path("layers")) {
+			ret.add(layer.path("digest").asText());
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the size of a blob of an image, from the image's manifest.
+	 *
+	 * @param manifest The image's manifest.
+	 * @param digest The digest of the blob.
+	 * @return The size of the blob, or null if the manifest doesn't list it.
+	 * @throws IOException If the manifest can't be parsed.
+	 */
+	public static Long getBlobSize(byte[] manifest, String digest) throws IOException {
+		JsonNode json = mapper.readTree(manifest);
+		List<JsonNode> blobs = new ArrayList<>();
+		blobs.add(json.path("config"));
+		json.path("layers").forEach(blobs::add);
+		for (JsonNode blob: blobs) {
+			if (digest.equals(blob.path("digest").asText()) && blob.path("size").isNumber()) {
+				return blob.path("size").asLong();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Write an image, from its manifest and blobs, to a registry.
+	 *
+	 * Only the blobs the registry doesn't already have are fetched.
+	 * Each is checked against its digest, as it is sent to the registry.
+	 *
+	 * @param registry The registry to hold the image.
+	 * @param repository The repository to hold the image.
+	 * @param tag The tag to give the image.
+	 * @param manifest The image's manifest.
+	 * @param blobs Fetches a blob, given its digest.  The input stream is closed after the blob is sent.
+	 * @return The image ID, as "sha256:" followed by the hex encoded hash.
+	 * @throws IOException If the manifest can't be parsed, or a blob doesn't match its digest.
+	 */
+	public static String write(RegistryClient registry, String repository, String tag, byte[] manifest, Function<String, InputStream> blobs) throws IOException {
+		List<String> digests = getBlobs(manifest);
+		for (String digest: digests) {
+			if (registry.getBlobSize(repository, digest) != null) {
+				log.info("Registry already has blob {} of {}", digest, repository);
+				continue;
+			}
+			RegistryClient.Blob blob;
+			try (InputStream is = blobs.apply(digest)) {
+				blob = registry.putBlob(repository, is, false);
+			}
+			if (!digest.equals(blob.getDigest())) {
+				throw new IOException("Blob " + digest + " of " + repository + " has digest " + blob.getDigest());
+			}
+		}
+		registry.putManifest(repository, tag, manifest);
+		return digests.get(0);
+	}
+
+	private static long getSize(JsonNode blob, String repository, String tag) throws IOException {
+		if (!blob.path("size").isNumber()) {
+			throw new IOException("Manifest of " + repository + ":" + tag + " has no size for blob " + blob.path("digest").asText());
+		}
+		return blob.path("size").asLong();
+	}
+
+	/**
+	 * Describe an image in a registry, as an archive.
+	 *
+	 * Only the manifest of the image is fetched.
+	 *
+	 * @param registry The registry holding the image.
+	 * @param repository The repository holding the image.
+	 * @param tag The tag of the image.
+	 * @param name The name to give the image in the archive.
+	 * @return The archive.
+	 * @throws IOException If the manifest can't be fetched, or doesn't give the size of every blob.
+	 */
+	public static Archive describe(RegistryClient registry, String repository, String tag, String name) throws IOException {
+		JsonNode manifest = getManifest(registry, repository, tag);
+		List<Part> parts = new ArrayList<>();
+		ArrayNode layers = mapper.createArrayNode();
+		for (JsonNode layer: manifest.path("layers")) {
+			String digest = layer.path("digest").asText();
+			String file = getHex(digest) + LAYER;
+			layers.add(file);
+			addFile(parts, file, getSize(layer, repository, tag), off -> registry.getBlob(repository, digest, off));
+		}
+		JsonNode config = manifest.path("config");
+		String configDigest = config.path("digest").asText();
+		String configFile = getHex(configDigest) + ".json";
+		addFile(parts, configFile, getSize(config, repository, tag), off -> registry.getBlob(repository, configDigest, off));
+		ObjectNode image = mapper.createObjectNode();
+		image.put("Config", configFile);
+		image.putArray("RepoTags").add(name);
+		image.set("Layers", layers);
+		addFile(parts, MANIFEST, mapper.writeValueAsBytes(mapper.createArrayNode().add(image)));
+		addBytes(parts, new byte[2 * BLOCK]);
+		return new Archive(configDigest, parts);
+	}
+
+	/**
+	 * Read an image from a registry, as an archive.
+	 *
+	 * Only the manifest of the image is fetched before returning.
+	 * The configuration and layers are fetched as the archive is read.
+	 *
+	 * @param registry The registry holding the image.
+	 * @param repository The repository holding the image.
+	 * @param tag The tag of the image.
+	 * @param name The name to give the image in the archive.
+	 * @return An InputStream for reading the archive.
+	 * @throws IOException If the manifest can't be fetched.
+	 */
+	public static InputStream read(RegistryClient registry, String repository, String tag, String name) throws IOException {
+		return describe(registry, repository, tag, name).open(0);
+	}
+
+	/**
+	 * Write an image, from an archive, to a registry.
+	 *
+	 * Layers are sent to the registry as they are read from the archive,
+	 * and are compressed, as they are sent, if they aren't already.
+	 * Layers the registry already has are skipped.  "docker save"
+	 * writes a layer used more than once as a symbolic link to the
+	 * first copy, so links are followed to the file they refer to.
+	 *
+	 * @param registry The registry to hold the image.
+	 * @param repository The repository to hold the image.
+	 * @param tag The tag to give the image.
+	 * @param archive The archive.  The caller must close the input stream.
+	 * @return The image ID, as "sha256:" followed by the hex encoded hash.
+	 * @throws IOException If the archive can't be read or isn't valid.
+	 */
+	public static String write(RegistryClient registry, String repository, String tag, InputStream archive) throws IOException {
+		Map<String, RegistryClient.Blob> blobs = new HashMap<>();
+		Map<String, byte[]> files = new HashMap<>();
+		Map<String, String> links = new HashMap<>();
+		byte[] contents = null;
+		TarArchiveInputStream tar = new TarArchiveInputStream(archive);
+		TarArchiveEntry entry;
+		while ((entry = tar.getNextTarEntry()) != null) {
+			String file = entry.getName();
+			if (entry.isSymbolicLink()) {
+				links.put(file, resolveLink(file, entry.getLinkName()));
+				continue;
+			}
+			if (!entry.isFile()) {
+				continue;
+			}
+			if (MANIFEST.equals(file)) {
+				contents = ByteStreams.toByteArray(tar);
+			} else if (file.endsWith(LAYER) || (file.startsWith(BLOBS) && entry.getSize() > MAX_BUFFERED)) {
+				blobs.put(file, putLayer(registry, repository, file, tar));
+			} else if (file.startsWith(BLOBS) || (file.endsWith(".json") && file.indexOf('/') == -1)) {
+				if (entry.getSize() > MAX_BUFFERED) {
+					throw new IOException("Image archive file " + file + " is too large");
+				}
+				files.put(file, ByteStreams.toByteArray(tar));
+			}
+		}
+		if (contents == null) {
+			throw new IOException("Image archive has no " + MANIFEST);
+		}
+		JsonNode image = mapper.readTree(contents).path(0);
+		String configFile = followLinks(links, image.path("Config").asText());
+		byte[] config = files.get(configFile);
+		if (config == null) {
+			throw new IOException("Image archive has no configuration " + configFile);
+		}
+		String configDigest = getDigest(config);
+		if (registry.getBlobSize(repository, configDigest) == null) {
+			registry.putBlob(repository, new ByteArrayInputStream(config), false);
+		}
+		ObjectNode manifest = mapper.createObjectNode();
+		manifest.put("schemaVersion", 2);
+		manifest.put("mediaType", RegistryClient.MANIFEST_TYPE);
+		manifest.putObject("config")
+		    .put("mediaType", RegistryClient.CONFIG_TYPE)
+		    .put("size", config.length)
+		    .put("digest", configDigest);
+		ArrayNode layers = manifest.putArray("layers");
+		for (JsonNode layer: image.path("Layers")) {
+			String file = followLinks(links, layer.asText());
+			RegistryClient.Blob blob = blobs.get(file);
+			if (blob == null) {
+				byte[] content = files.get(file);
+				if (content == null) {
+					throw new IOException("Image archive has no layer " + file);
+				}
+				blob = putLayer(registry, repository, file, new ByteArrayInputStream(content));
+				blobs.put(file, blob);
+			}
+			layers.addObject()
+			    .put("mediaType", RegistryClient.LAYER_TYPE)
+			    .put("size", blob.getSize())
+			    .put("digest", blob.getDigest());
+		}
+		registry.putManifest(repository, tag, mapper.writeValueAsBytes(manifest));
+		return configDigest;
+	}
+}
@@ -0,0 +1,195 @@
+/*-
+ * ===============LICENSE_START=======================================================
+ * Acumos
+ * ===================================================================================
+ * Copyright (C) 2019 AT&T Intellectual Property & Tech Mahindra. All rights reserved.
+ * ===================================================================================
+ * This Acumos software file is distributed by AT&T and Tech Mahindra
+ * under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ===============LICENSE_END=========================================================
+ */
+package org.acumos.federation.gateway;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.acumos.cds.domain.MLPSolution;
+import org.acumos.cds.domain.MLPSolutionRevision;
+
+/**
+ * Remembers the solutions and revisions recently sent to peers, in the
+ * form they were sent, so many peers asking for the same item cost one
+ * set of lookups in the common data service.  Also remembers the
+ * digests of solution pictures, so they are not loaded and hashed
+ * each time a solution's picture is compared or its digest sent.
+ *
+ * Entries are evicted, least recently used first, once there are more
+ * than the configured number, and expire after the configured time.
+ * Changes made through the Catalog service remove the affected entries
+ * at once.  Peers asking for an item while it is being loaded wait for
+ * that load rather than starting their own.
+ */
+public class MetadataCache {
+	@Autowired
+	private FederationConfig federation;
+
+	private static class Entry {
+		private FutureTask<Object> value;
+		private Instant expires;
+
+		public Entry(FutureTask<Object> value, Instant expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > federation.getMetadataCacheSize();
+		}
+	};
+
+	/*
+	 * Local peers are sent the local locations of artifacts and
+	 * documents, so the form of an item depends on who is asking.
+	 */
+	private static String key(String kind, String id, String extra) {
+		return kind + " " + id + " " + extra + " " + Security.isCurrentPeerLocal();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T get(String key, Supplier<T> loader) {
+		int timeout = federation.getMetadataCacheTimeout();
+		if (timeout <= 0 || federation.getMetadataCacheSize() <= 0) {
+			return loader.get();
+		}
+		Instant now = Instant.now();
+		Entry entry;
+		boolean load = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null || !entry.expires.isAfter(now)) {
+				entry = new Entry(new FutureTask<>(loader::get), now.plusSeconds(timeout));
+				entries.put(key, entry);
+				load = true;
+			}
+		}
+		if (load) {
+			entry.value.run();
+		}
+		try {
+			Object ret = entry.value.get();
+			if (ret == null) {
+				remove(key, entry);
+			}
+			return (T)ret;
+		} catch (ExecutionException ee) {
+			remove(key, entry);
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ie);
+		}
+	}
+
+	private synchronized void remove(String key, Entry entry) {
+		entries.remove(key, entry);
+	}
+
+	private synchronized void removeAll(String prefix) {
+		entries.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * Get a solution, as sent to the current peer.
+	 *
+	 * Nothing is remembered if the loader returns null or fails.
+	 *
+	 * @param solutionId The ID of the solution.
+	 * @param picture Whether the picture is sent, rather than its digest.
+	 * @param loader Loads the solution, if it isn't already known.
+	 * @return The solution or null if the loader returned null.
+	 */
+	public MLPSolution getSolution(String solutionId, boolean picture, Supplier<MLPSolution> loader) {
+		return get(key("solution", solutionId, String.valueOf(picture)), loader);
+	}
+
+	/**
+	 * Get the digest of a solution's picture.
+	 *
+	 * Nothing is remembered if the loader returns null or fails.
+	 *
+	 * @param solutionId The ID of the solution.
+	 * @param modified When the solution was last modified.
+	 * @param loader Loads the picture and computes its digest, if it isn't already known.
+	 * @return The digest.
+	 */
+	public String getPictureDigest(String solutionId, Instant modified, Supplier<String> loader) {
+		return get("solution " + solutionId + " picture " + modified, loader);
+	}
+
+	/**
+	 * Get a revision, as sent to the current peer.
+	 *
+	 * Nothing is remembered if the loader returns null or fails.
+	 *
+	 * @param revisionId The ID of the revision.
+	 * @param catalogId The ID of the catalog for documents and descriptions, or null.
+	 * @param loader Loads the revision, if it isn't already known.
+	 * @return The revision or null if the loader returned null.
+	 */
+	public MLPSolutionRevision getRevision(String revisionId, String catalogId, Supplier<MLPSolutionRevision> loader) {
+		return get(key("revision", revisionId, String.valueOf(catalogId)), loader);
+	}
+
+	/**
+	 * Forget a solution, and the digest of its picture, after it, its
+	 * picture, or its list of revisions changes.
+	 *
+	 * @param solutionId The ID of the solution.
+	 */
+	public void removeSolution(String solutionId) {
+		removeAll("solution " + solutionId + " ");
+	}
+
+	/**
+	 * Forget a revision, in all catalogs, after it, or its artifacts,
+	 * documents, or descriptions change.
+	 *
+	 * @param revisionId The ID of the revision.
+	 */
+	public void removeRevision(String revisionId) {
+		removeAll("revision " + revisionId + " ");
+	}
+
+	/**
+	 * Forget all revisions, after an artifact or document, that may
+	 * belong to any of them, changes.
+	 */
+	public void removeRevisions() {
+		removeAll("revision ");
+	}
+}
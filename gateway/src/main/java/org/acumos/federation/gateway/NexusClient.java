@@ -21,6 +21,9 @@
 
 import java.io.InputStream;
 
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+
 import org.acumos.cds.domain.MLPArtifact;
 import org.acumos.cds.domain.MLPDocument;
 
@@ -51,14 +54,53 @@ public InputStream getDocumentContent(MLPDocument document) {
 		return download("/" + document.getUri());
 	}
 
+	/**
+	 * Get a document from the Nexus server, starting part way through.
+	 *
+	 * @param document The document to fetch.
+	 * @param offset The number of bytes, at the start, to leave out.
+	 * @return An inputstream for reading the rest of the document's content.
+	 */
+	public InputStream getDocumentContent(MLPDocument document, long offset) {
+		return download(offset, "/" + document.getUri());
+	}
+
+	/**
+	 * Get the SHA-256 checksum the Nexus server computed when a
+	 * document was uploaded.
+	 *
+	 * @param document The document to check.
+	 * @return The hex encoded checksum.
+	 */
+	public String getDocumentChecksum(MLPDocument document) {
+		return getChecksum(document.getUri());
+	}
+
+	/*
+	 * Nexus keeps checksums of maven content, and serves them, as text,
+	 * at the content's URI with the algorithm appended.
+	 */
+	private String getChecksum(String uri) {
+		String ret = handle("/" + uri + ".sha256", HttpMethod.GET, new ParameterizedTypeReference<String>() {});
+		return ret == null? null: ret.trim().split("\\s", 2)[0];
+	}
+
+	/*
+	 * The size, from the metadata, of content to upload, or -1, to
+	 * send it chunked, if it isn't known.
+	 */
+	private static long getLength(Long size) {
+		return size == null? -1: size;
+	}
+
 	/**
 	 * Put a document to the Nexus server.
 	 *
 	 * @param document The document to save.
-	 * @param is The data.
+	 * @param is The data.  Its length must match the document's size, if known.
 	 */
 	public void putDocumentContent(MLPDocument document, InputStream is) {
-		upload("/" + document.getUri(), is);
+		upload("/" + document.getUri(), getLength(document.getSize()), is);
 	}
 
 	/**
@@ -71,13 +113,35 @@ public InputStream getArtifactContent(MLPArtifact artifact) {
 		return download("/" + artifact.getUri());
 	}
 
+	/**
+	 * Get an artifact from the Nexus server, starting part way through.
+	 *
+	 * @param artifact The artifact to fetch.
+	 * @param offset The number of bytes, at the start, to leave out.
+	 * @return An inputstream for reading the rest of the artifact's content.
+	 */
+	public InputStream getArtifactContent(MLPArtifact artifact, long offset) {
+		return download(offset, "/" + artifact.getUri());
+	}
+
+	/**
+	 * Get the SHA-256 checksum the Nexus server computed when an
+	 * artifact was uploaded.
+	 *
+	 * @param artifact The artifact to check.
+	 * @return The hex encoded checksum.
+	 */
+	public String getArtifactChecksum(MLPArtifact artifact) {
+		return getChecksum(artifact.getUri());
+	}
+
 	/**
 	 * Put a artifact to the Nexus server.
 	 *
 	 * @param artifact The artifact to save.
-	 * @param is The data.
+	 * @param is The data.  Its length must match the artifact's size, if known.
 	 */
 	public void putArtifactContent(MLPArtifact artifact, InputStream is) {
-		upload("/" + artifact.getUri(), is);
+		upload("/" + artifact.getUri(), getLength(artifact.getSize()), is);
 	}
 }
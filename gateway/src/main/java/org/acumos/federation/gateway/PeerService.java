@@ -20,6 +20,7 @@
 package org.acumos.federation.gateway;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.acumos.cds.domain.MLPPeer;
 import org.acumos.cds.domain.MLPPeerSubscription;
@@ -38,6 +39,15 @@ public interface PeerService {
 	 * @return The list of peers.
 	 */
 	public List<MLPPeer> getPeers();
+	/**
+	 * Perform an action on each of the peers.
+	 *
+	 * The peers are fetched a page at a time, as the action reaches
+	 * them, so the list is never held in memory all at once.
+	 *
+	 * @param action The action to perform on each peer.
+	 */
+	public void forEachPeer(Consumer<MLPPeer> action);
 	/**
 	 * Get a peer by peer ID.
 	 *
@@ -19,9 +19,13 @@
  */
 package org.acumos.federation.gateway;
 
+import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -36,12 +40,44 @@
  * Service bean for implementing the peer service using CDS.
  */
 public class PeerServiceImpl implements PeerService {
+	private static final int SUBJECT_CACHE_SIZE = 1000;
+
+	private static class CachedPeer {
+		private MLPPeer peer;
+		private Instant expires;
+
+		public CachedPeer(MLPPeer peer, Instant expires) {
+			this.peer = peer;
+			this.expires = expires;
+		}
+	}
+
 	@Autowired
 	private Clients clients;
 
+	@Autowired
+	private FederationConfig federation;
+
+	/*
+	 * The peer, or null if none, with each recently seen certificate
+	 * subject name, so authenticating a request doesn't need a CDS
+	 * search.  Registering or unregistering a peer removes its entry.
+	 */
+	private Map<String, CachedPeer> peersBySubject = Collections.synchronizedMap(new LinkedHashMap<String, CachedPeer>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedPeer> eldest) {
+			return size() > SUBJECT_CACHE_SIZE;
+		}
+	});
+
 	@Override
 	public List<MLPPeer> getPeers() {
-		return Application.cdsAll(pr -> clients.getCDSClient().getPeers(pr));
+		return Application.cdsAll(pr -> clients.getCDSClient().getPeers(pr), federation.getCds());
+	}
+
+	@Override
+	public void forEachPeer(Consumer<MLPPeer> action) {
+		Application.cdsStream(pr -> clients.getCDSClient().getPeers(pr), federation.getCds()).forEach(action);
 	}
 
 	@Override
@@ -51,11 +87,16 @@ public MLPPeer getPeer(String peerId) {
 
 	@Override
 	public MLPPeer getPeerBySubject(String subject) {
-		List<MLPPeer> candidates = Application.cdsAll(pr -> clients.getCDSClient().searchPeers(Collections.singletonMap("subjectName", subject), false, pr));
-		if (candidates.isEmpty()) {
-			return null;
+		Instant now = Instant.now();
+		CachedPeer cached = peersBySubject.get(subject);
+		if (cached != null && cached.expires.isAfter(now)) {
+			return cached.peer;
 		}
-		return candidates.get(0);
+		MLPPeer ret = Application.cdsStream(pr -> clients.getCDSClient().searchPeers(Collections.singletonMap("subjectName", subject), false, pr), federation.getCds()).findFirst().orElse(null);
+		if (federation.getPeerCacheTimeout() > 0) {
+			peersBySubject.put(subject, new CachedPeer(ret, now.plusSeconds(federation.getPeerCacheTimeout())));
+		}
+		return ret;
 	}
 
 	@Override
@@ -63,11 +104,7 @@ public MLPPeer getSelf(String subject) {
 		HashMap<String, Object> filter = new HashMap<>();
 		filter.put("subjectName", subject);
 		filter.put("self", true);
-		List<MLPPeer> candidates = Application.cdsAll(pr -> clients.getCDSClient().searchPeers(filter, false, pr));
-		if (candidates.isEmpty()) {
-			return null;
-		}
-		return candidates.get(0);
+		return Application.cdsStream(pr -> clients.getCDSClient().searchPeers(filter, false, pr), federation.getCds()).findFirst().orElse(null);
 	}
 
 	@Override
@@ -90,7 +127,11 @@ public void register() {
 		if (Security.getCurrentPeerId() != null) {
 			throw new BadRequestException(HttpServletResponse.SC_CONFLICT, "Already registered as " + Security.getCurrentPeerId());
 		}
-		clients.getCDSClient().createPeer(Security.getCertificatePeer());
+		MLPPeer peer = Security.getCertificatePeer();
+		clients.getCDSClient().createPeer(peer);
+		if (peer != null) {
+			peersBySubject.remove(peer.getSubjectName());
+		}
 	}
 
 	@Override
@@ -98,5 +139,6 @@ public void unregister() {
 		MLPPeer peer = clients.getCDSClient().getPeer(Security.getCurrentPeerId());
 		peer.setStatusCode(FederationClient.PSC_RENOUNCED);
 		clients.getCDSClient().updatePeer(peer);
+		peersBySubject.remove(peer.getSubjectName());
 	}
 }
@@ -0,0 +1,212 @@
+/*-
+ * ===============LICENSE_START=======================================================
+ * Acumos
+ * ===================================================================================
+ * Copyright (C) 2019 AT&T Intellectual Property & Tech Mahindra. All rights reserved.
+ * ===================================================================================
+ * This Acumos software file is distributed by AT&T and Tech Mahindra
+ * under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ===============LICENSE_END=========================================================
+ */
+package org.acumos.federation.gateway;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Runs the work that follows copying a revision from a peer, such as
+ * security verification scans and license registration, in the
+ * background.
+ *
+ * At most federation.post-sync.parallelism jobs run at once, jobs are
+ * started no faster than federation.post-sync.rate per minute, and at
+ * most federation.post-sync.max-pending jobs may be waiting.  A failed
+ * job is retried, after a delay that doubles each time, until it has
+ * been tried federation.post-sync.max-attempts times.
+ */
+public class PostSyncExecutor {
+	private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private static final int MAX_FAILURES_KEPT = 100;
+
+	/**
+	 * A unit of work to be run.
+	 */
+	public interface Job {
+		/**
+		 * Do the work.
+		 *
+		 * @throws Exception If the work failed and should be retried.
+		 */
+		void run() throws Exception;
+	}
+
+	@Autowired
+	private FederationConfig federation;
+
+	private class Attempt implements Runnable {
+		private String description;
+		private Job job;
+		private int attempt = 1;
+		private boolean reserved;
+
+		public Attempt(String description, Job job) {
+			this.description = description;
+			this.job = job;
+		}
+
+		public void run() {
+			if (!reserved) {
+				reserved = true;
+				long wait = reserve();
+				if (wait > 0) {
+					schedule(this, wait);
+					return;
+				}
+			}
+			reserved = false;
+			FederationConfig.PostSync config = federation.getPostSync();
+			try {
+				job.run();
+				done(null);
+			} catch (Exception ex) {
+				if (attempt < config.getMaxAttempts()) {
+					long delay = TimeUnit.SECONDS.toMillis(config.getRetryDelay()) << Math.min(attempt - 1, 20);
+					log.warn("Attempt {} of {} failed.  Retrying in {} ms: {}", attempt, description, delay, ex.toString());
+					attempt++;
+					schedule(this, delay);
+				} else {
+					log.error("Giving up on " + description + " after " + attempt + " attempts", ex);
+					done(description + ": " + ex);
+				}
+			}
+		}
+	}
+
+	private ScheduledExecutorService workers;
+	private long nextStart;
+	private int pending;
+	private long failed;
+	private ArrayDeque<String> failures = new ArrayDeque<>();
+
+	private synchronized ScheduledExecutorService getWorkers() {
+		if (workers == null) {
+			workers = Executors.newScheduledThreadPool(Math.max(1, federation.getPostSync().getParallelism()), new CustomizableThreadFactory("federation-post-sync-"));
+		}
+		return workers;
+	}
+
+	/**
+	 * Stop running jobs when shutting down.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	/**
+	 * Queue a job to be run.
+	 *
+	 * If too many jobs are already waiting, the job is not run, and
+	 * is counted as failed.
+	 *
+	 * @param description What the job does, for logging.
+	 * @param job The job.
+	 */
+	public void submit(String description, Job job) {
+		synchronized (this) {
+			if (pending >= federation.getPostSync().getMaxPending()) {
+				log.error("Too many jobs pending.  Skipping {}", description);
+				noteFailure(description + ": too many jobs pending");
+				return;
+			}
+			pending++;
+		}
+		schedule(new Attempt(description, job), 0);
+	}
+
+	/**
+	 * Get the number of jobs waiting to run, or running.
+	 *
+	 * @return The number of jobs.
+	 */
+	public synchronized int getPending() {
+		return pending;
+	}
+
+	/**
+	 * Get the number of jobs that failed, after all their retries.
+	 *
+	 * @return The number of jobs.
+	 */
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Get descriptions of the most recent jobs that failed.
+	 *
+	 * @return The descriptions, oldest first.
+	 */
+	public synchronized List<String> getRecentFailures() {
+		return new ArrayList<>(failures);
+	}
+
+	private synchronized void schedule(Attempt attempt, long delay) {
+		getWorkers().schedule(attempt, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Reserve the next time a job may start, under the rate limit,
+	 * and return how long to wait until then.
+	 */
+	private synchronized long reserve() {
+		int rate = federation.getPostSync().getRate();
+		if (rate <= 0) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		long start = Math.max(now, nextStart);
+		nextStart = start + TimeUnit.MINUTES.toMillis(1) / rate;
+		return start - now;
+	}
+
+	private synchronized void done(String failure) {
+		pending--;
+		if (failure != null) {
+			noteFailure(failure);
+		}
+	}
+
+	private void noteFailure(String failure) {
+		failed++;
+		failures.add(failure);
+		if (failures.size() > MAX_FAILURES_KEPT) {
+			failures.remove();
+		}
+	}
+}
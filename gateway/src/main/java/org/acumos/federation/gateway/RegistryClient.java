@@ -0,0 +1,249 @@
+/*-
+ * ===============LICENSE_START=======================================================
+ * Acumos
+ * ===================================================================================
+ * Copyright (C) 2019 AT&T Intellectual Property & Tech Mahindra. All rights reserved.
+ * ===================================================================================
+ * This Acumos software file is distributed by AT&T and Tech Mahindra
+ * under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ===============LICENSE_END=========================================================
+ */
+package org.acumos.federation.gateway;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpClientErrorException;
+
+import org.acumos.federation.client.ClientBase;
+import org.acumos.federation.client.config.ClientConfig;
+
+/**
+ * Client for accessing a Docker registry directly, using the Docker
+ * Registry HTTP API V2, rather than through a Docker host.
+ */
+public class RegistryClient extends ClientBase {
+	/**
+	 * The media type of image manifests.
+	 */
+	public static final String MANIFEST_TYPE = "application/vnd.docker.distribution.manifest.v2+json";
+	/**
+	 * The media type of image configurations.
+	 */
+	public static final String CONFIG_TYPE = "application/vnd.docker.container.image.v1+json";
+	/**
+	 * The media type of (compressed) image layers.
+	 */
+	public static final String LAYER_TYPE = "application/vnd.docker.image.rootfs.diff.tar.gzip";
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final String DIGEST_PREFIX = "sha256:";
+
+	private String hostport;
+
+	/**
+	 * A blob stored in the registry.
+	 */
+	public static class Blob {
+		private String digest;
+		private long size;
+
+		/**
+		 * Describe a blob.
+		 *
+		 * @param digest The digest of the blob, as "sha256:" followed by the hex encoded hash.
+		 * @param size The size of the blob.
+		 */
+		public Blob(String digest, long size) {
+			this.digest = digest;
+			this.size = size;
+		}
+
+		/**
+		 * Get the digest of the blob.
+		 *
+		 * @return The digest, as "sha256:" followed by the hex encoded hash.
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * Get the size of the blob.
+		 *
+		 * @return The size in bytes.
+		 */
+		public long getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * Create a registry client.
+	 *
+	 * @param hostport The hostname:port of the registry.
+	 * @param cc Credentials for accessing the registry.
+	 */
+	public RegistryClient(String hostport, ClientConfig cc) {
+		super("http://" + hostport, cc, null, null);
+		this.hostport = hostport;
+	}
+
+	/**
+	 * Get the repository, in this registry, for an image.
+	 *
+	 * @param image The name of the image, in the form hostname:port/repository:tag.
+	 * @return The repository, or null if the image is not in this registry.
+	 */
+	public String getRepository(String image) {
+		if (image == null || !image.startsWith(hostport + "/")) {
+			return null;
+		}
+		String ret = image.substring(hostport.length() + 1);
+		int colon = ret.lastIndexOf(':');
+		return colon > ret.lastIndexOf('/')? ret.substring(0, colon): ret;
+	}
+
+	/**
+	 * Get the tag of an image.
+	 *
+	 * @param image The name of the image, in the form hostname:port/repository:tag.
+	 * @return The tag, or "latest" if the name doesn't include one.
+	 */
+	public static String getTag(String image) {
+		int colon = image.lastIndexOf(':');
+		return colon > image.lastIndexOf('/')? image.substring(colon + 1): "latest";
+	}
+
+	/**
+	 * Get the manifest of an image.
+	 *
+	 * @param repository The repository holding the image.
+	 * @param reference The tag or digest of the image.
+	 * @return The manifest, as sent by the registry.
+	 */
+	public byte[] getManifest(String repository, String reference) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setAccept(Collections.singletonList(MediaType.valueOf(MANIFEST_TYPE)));
+		return restTemplate.exchange("/v2/" + repository + "/manifests/" + reference, HttpMethod.GET, new HttpEntity<>(headers), byte[].class).getBody();
+	}
+
+	/**
+	 * Put the manifest of an image.
+	 *
+	 * @param repository The repository to hold the image.
+	 * @param reference The tag for the image.
+	 * @param manifest The manifest.
+	 */
+	public void putManifest(String repository, String reference, byte[] manifest) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf(MANIFEST_TYPE));
+		restTemplate.exchange("/v2/" + repository + "/manifests/" + reference, HttpMethod.PUT, new HttpEntity<>(manifest, headers), Void.class);
+	}
+
+	/**
+	 * Get the size of a blob, if the registry has it.
+	 *
+	 * @param repository The repository holding the blob.
+	 * @param digest The digest of the blob.
+	 * @return The size of the blob, or null if the registry doesn't have it.
+	 */
+	public Long getBlobSize(String repository, String digest) {
+		try {
+			long ret = restTemplate.headForHeaders("/v2/" + repository + "/blobs/" + digest).getContentLength();
+			return ret < 0? null: ret;
+		} catch (HttpClientErrorException.NotFound nf) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the content of a blob.
+	 *
+	 * @param repository The repository holding the blob.
+	 * @param digest The digest of the blob.
+	 * @return An InputStream for reading the blob's content.
+	 */
+	public InputStream getBlob(String repository, String digest) {
+		return getBlob(repository, digest, 0);
+	}
+
+	/**
+	 * Get the content of a blob, starting part way through.
+	 *
+	 * @param repository The repository holding the blob.
+	 * @param digest The digest of the blob.
+	 * @param offset The number of bytes, at the start, to leave out.
+	 * @return An InputStream for reading the rest of the blob's content.
+	 */
+	public InputStream getBlob(String repository, String digest, long offset) {
+		return download(offset, "/v2/" + repository + "/blobs/" + digest);
+	}
+
+	/**
+	 * Put the content of a blob, streaming it to the registry.
+	 *
+	 * @param repository The repository to hold the blob.
+	 * @param content The content of the blob.  The caller must close the input stream.
+	 * @param compress Whether to compress the content, with gzip, as it is sent.
+	 * @return The blob, as stored in the registry.
+	 */
+	public Blob putBlob(String repository, InputStream content, boolean compress) {
+		URI base = restTemplate.getUriTemplateHandler().expand("/");
+		URI upload = restTemplate.postForLocation("/v2/" + repository + "/blobs/uploads/", null);
+		if (upload == null) {
+			throw new IllegalStateException("Registry gave no location for uploading to " + repository);
+		}
+		upload = base.resolve(upload);
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported", nsae);
+		}
+		long[] size = new long[1];
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+		URI next = stream(upload, HttpMethod.PATCH, headers, body -> {
+			CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(body, md));
+			OutputStream out = compress? new GZIPOutputStream(counter, 65536): counter;
+			ByteStreams.copy(content, out);
+			if (compress) {
+				((GZIPOutputStream)out).finish();
+			}
+			out.flush();
+			size[0] = counter.getCount();
+		}).getLocation();
+		if (next != null) {
+			upload = base.resolve(next);
+		}
+		StringBuilder digest = new StringBuilder(DIGEST_PREFIX);
+		for (byte b: md.digest()) {
+			digest.append(String.format("%02x", b & 0xff));
+		}
+		restTemplate.put(URI.create(upload + (upload.getRawQuery() == null? "?": "&") + "digest=" + digest), null);
+		return new Blob(digest.toString(), size[0]);
+	}
+}
@@ -22,15 +22,27 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.function.Function;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,7 +52,9 @@
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.ResourceAccessException;
 
 import org.acumos.cds.client.ICommonDataServiceRestClient;
@@ -58,6 +72,8 @@
 import org.acumos.licensemanager.client.model.RegisterAssetResponse;
 
 import org.acumos.federation.client.FederationClient;
+import org.acumos.federation.client.data.Artifact;
+import org.acumos.federation.client.data.Document;
 import org.acumos.federation.client.data.Solution;
 import org.acumos.federation.client.data.SolutionRevision;
 
@@ -84,6 +100,9 @@ public class SubscriptionPoller {
 	@Autowired
 	private Clients clients;
 
+	@Autowired
+	private PostSyncExecutor postSync;
+
 	private static final ObjectMapper mapper = new ObjectMapper();
 	private static final TypeReference<Map<String, Object>> trMapStoO = new TypeReference<Map<String, Object>>(){};
 
@@ -253,9 +272,21 @@ public PendingAction end() {
 			return(null);
 		}
 
-		public void fail(PendingAction handle, String msg) {
-			String format = "Error occurred while %s: %s";
-			String sev = "HI";
+		public String fail(PendingAction handle, String msg) {
+			return fail(handle, "Error occurred while %s: %s", "HI", msg);
+		}
+
+		/*
+		 * Continue reporting a failure, already reported by another
+		 * Notifier, out through this Notifier's pending actions.
+		 */
+		public String failNested(PendingAction handle, String during) {
+			return fail(handle, NESTED_FORMAT, "ME", during);
+		}
+
+		private static final String NESTED_FORMAT = "While %s, an error occurred: %s";
+
+		private String fail(PendingAction handle, String format, String sev, String msg) {
 			PendingAction cur = null;
 			do {
 				cur = leaf;
@@ -267,9 +298,141 @@ public void fail(PendingAction handle, String msg) {
 				String during = cur.getDuring();
 				note(cur, sev, String.format(format, during, msg));
 				msg = during;
-				format = "While %s, an error occurred: %s";
+				format = NESTED_FORMAT;
 				sev = "ME";
 			} while (cur != handle && actions != null);
+			return msg;
+		}
+	}
+
+	/*
+	 * Thrown when checking a solution fails, after the failure has
+	 * been reported by the Notifier used for that solution.  The
+	 * message is what was being done when the failure occurred.
+	 */
+	private static class ReportedFailure extends RuntimeException {
+		public ReportedFailure(String during, Throwable cause) {
+			super(during, cause);
+		}
+	}
+
+	/*
+	 * How many solutions to fetch at a time, when listing a
+	 * peer's catalog.
+	 */
+	private static final int PAGE_SIZE = 100;
+	/*
+	 * How far the clocks of this gateway and its peers, and their
+	 * databases, may disagree, when asking for changes since a
+	 * subscription was last processed.
+	 */
+	private static final Duration CLOCK_SKEW = Duration.ofMinutes(5);
+
+	/*
+	 * A snapshot of the local copy of a catalog, taken when checking
+	 * it against a peer's copy starts, so differences can be found
+	 * in memory.  The solutions come from the catalog's listing and
+	 * are never looked up again.  A solution's list of revisions, and
+	 * a revision's artifacts, documents, and description, are loaded
+	 * the first time they're compared.  Pictures are compared by
+	 * digest, and only loaded if the peer doesn't send a digest.
+	 * Artifacts and documents are remembered by ID, so one shared by
+	 * several revisions is only looked up once.  Solutions and
+	 * revisions not in the snapshot are looked up directly.
+	 *
+	 * If since is not null, the parts of revisions in the snapshot
+	 * that the peer last modified before then were already copied by
+	 * an earlier poll, and their local copies needn't be loaded.
+	 */
+	private class LocalCatalog {
+		private String catalogId;
+		private Instant since;
+		private Map<String, MLPSolution> solutions;
+		private Map<String, MLPSolutionRevision> revisions = new ConcurrentHashMap<>();
+		private Map<String, MLPArtifact> artifacts = new ConcurrentHashMap<>();
+		private Map<String, MLPDocument> documents = new ConcurrentHashMap<>();
+
+		public LocalCatalog(String catalogId, Instant since) {
+			this.catalogId = catalogId;
+			this.since = since;
+			this.solutions = index(catalogService.getSolutions(catalogId), MLPSolution::getSolutionId);
+		}
+
+		public boolean isEmpty() {
+			return solutions.isEmpty();
+		}
+
+		public boolean contains(String solutionId) {
+			return solutions.containsKey(solutionId);
+		}
+
+		public Solution getSolution(String solutionId) {
+			Solution ret = (Solution)solutions.get(solutionId);
+			if (ret == null) {
+				ret = (Solution)catalogService.getSolution(solutionId, false);
+			} else {
+				ret.setRevisions(catalogService.getRevisions(solutionId));
+				if (ret.getRevisions() == null || ret.getRevisions().isEmpty()) {
+					return null;
+				}
+			}
+			if (ret != null) {
+				for (MLPSolutionRevision rev: ret.getRevisions()) {
+					revisions.put(rev.getRevisionId(), rev);
+				}
+			}
+			return ret;
+		}
+
+		/*
+		 * Whether a part of a revision, that the peer last modified
+		 * at the given time, may differ from the local copy.
+		 */
+		public boolean isStale(String revisionId, Instant modified) {
+			MLPSolutionRevision rev = revisions.get(revisionId);
+			return since == null || modified == null || rev == null || !solutions.containsKey(rev.getSolutionId()) || !modified.isBefore(since);
+		}
+
+		/*
+		 * Revisions in the snapshot only get the requested parts
+		 * loaded.
+		 */
+		public SolutionRevision getRevision(String revisionId, boolean withArtifacts, boolean withDescription, boolean withDocuments) {
+			SolutionRevision ret = (SolutionRevision)revisions.get(revisionId);
+			if (ret == null) {
+				ret = (SolutionRevision)catalogService.getRevision(revisionId, catalogId);
+			} else {
+				if (withArtifacts) {
+					ret.setArtifacts(catalogService.getArtifacts(revisionId));
+				}
+				if (withDescription) {
+					ret.setRevCatDescription(catalogService.getDescription(revisionId, catalogId));
+				}
+				if (withDocuments) {
+					ret.setDocuments(catalogService.getDocuments(revisionId, catalogId));
+				}
+			}
+			if (ret != null) {
+				ret.getArtifacts().forEach(artifact -> artifacts.put(artifact.getArtifactId(), artifact));
+				ret.getDocuments().forEach(document -> documents.put(document.getDocumentId(), document));
+			}
+			return ret;
+		}
+
+		public MLPArtifact getArtifact(String artifactId) {
+			MLPArtifact ret = artifacts.get(artifactId);
+			if (ret == null && (ret = catalogService.getArtifact(artifactId)) != null) {
+				artifacts.put(artifactId, ret);
+			}
+			return ret;
+		}
+
+		public MLPDocument getDocument(String documentId) {
+			MLPDocument ret = documents.get(documentId);
+			if (ret == null && (ret = catalogService.getDocument(documentId)) != null) {
+				documents.put(documentId, ret);
+			}
+			return ret;
 		}
 	}
 
@@ -280,6 +443,14 @@ private class PeerSubscriptionPoller implements Runnable {
 		private Long interval;
 		private ScheduledFuture future;
 		private Notifier events;
+		private ArrayList<Future<?>> pending = new ArrayList<>();
+		/*
+		 * Peers only list changes their common data service can
+		 * find by modification time, which doesn't cover revision
+		 * descriptions and documents, so, now and then, every
+		 * solution is checked.
+		 */
+		private Instant lastFullCheck = Instant.now();
 
 		public PeerSubscriptionPoller(long subId, String userId, String peerId, Long interval) {
 			this.subId = subId;
@@ -301,6 +472,23 @@ public synchronized void cancel() {
 				future.cancel(false);
 				future = null;
 			}
+			cancelPending();
+		}
+
+		private synchronized void cancelPending() {
+			for (Future<?> work: pending) {
+				work.cancel(false);
+			}
+		}
+
+		private synchronized Future<?> submit(Runnable work) {
+			Future<?> ret = getWorkers().submit(work);
+			pending.add(ret);
+			return ret;
+		}
+
+		private synchronized void clearPending() {
+			pending.clear();
 		}
 
 		public synchronized void schedule() {
@@ -311,13 +499,53 @@ public synchronized void schedule() {
 			}
 		}
 
-		private boolean checkRevision(String revisionId, String solutionId, String catalogId, FederationClient peer) {
+		/*
+		 * Compare the digest of some peer content with that of the
+		 * local copy.  Returns null if either digest is unknown.
+		 */
+		private <T> Boolean sameDigest(String peerDigest, T local, Function<T, String> getDigest) {
+			if (peerDigest == null) {
+				return null;
+			}
+			String localDigest = getDigest.apply(local);
+			if (localDigest == null) {
+				return null;
+			}
+			return peerDigest.equals(localDigest);
+		}
+
+		/*
+		 * Fetch the manifest of a Docker image artifact from the
+		 * peer.  Returns null if the peer can't send the image a
+		 * layer at a time.
+		 */
+		private byte[] getManifest(FederationClient peer, String artifactId) {
+			try {
+				return peer.getArtifactManifest(artifactId);
+			} catch (HttpClientErrorException.NotFound nfe) {
+				log.info("Peer {} can't send artifact {} a layer at a time", peerId, artifactId);
+				return null;
+			}
+		}
+
+		private boolean checkRevision(String revisionId, String solutionId, LocalCatalog local, FederationClient peer, Notifier events) {
+			String catalogId = local.catalogId;
 			log.info("Checking revision {} from peer {}", revisionId, peerId);
 			PendingAction act = events.begin("revision %s", revisionId);
 			events.check(Action.FETCH, "remote revision");
 			SolutionRevision pRev = (SolutionRevision)peer.getSolutionRevision(solutionId, revisionId, catalogId);
+			MLPRevCatDescription pDesc = pRev.getRevCatDescription();
+			List<MLPArtifact> pArts = pRev.getArtifacts();
+			List<MLPDocument> pDocs = pRev.getDocuments();
+			/*
+			 * Only the parts the peer may have changed since the
+			 * last poll are compared with their local copies.
+			 */
+			boolean checkDesc = pDesc == null || local.isStale(revisionId, pDesc.getModified());
+			boolean checkArts = pArts.stream().anyMatch(pArt -> local.isStale(revisionId, pArt.getModified()));
+			boolean checkDocs = pDocs.stream().anyMatch(pDoc -> local.isStale(revisionId, pDoc.getModified()));
 			events.check(Action.FETCH, "local revision");
-			SolutionRevision lRev = (SolutionRevision)catalogService.getRevision(revisionId, catalogId);
+			SolutionRevision lRev = local.getRevision(revisionId, checkArts, checkDesc, checkDocs);
 			boolean changed = false;
 			boolean isnew = lRev == null;
 			pRev.setUserId(userId);
@@ -327,9 +555,10 @@ private boolean checkRevision(String revisionId, String solutionId, String catal
 				events.action(Action.CREATE, "revision %s", revisionId);
 				lRev = (SolutionRevision)catalogService.createRevision(pRev);
 			}
-			MLPRevCatDescription pDesc = pRev.getRevCatDescription();
 			MLPRevCatDescription lDesc = lRev.getRevCatDescription();
-			if (pDesc != null) {
+			if (!checkDesc) {
+				log.debug("Description for revision {} in catalog {} is unchanged", revisionId, catalogId);
+			} else if (pDesc != null) {
 				if (lDesc == null) {
 					log.info("Description for revision {} in catalog {} doesn't exist locally.  Creating it", revisionId, catalogId);
 					events.action(Action.CREATE, "revision description");
@@ -344,10 +573,13 @@ private boolean checkRevision(String revisionId, String solutionId, String catal
 				events.action(Action.DELETE, "revision description");
 				catalogService.deleteDescription(revisionId, catalogId);
 			}
-			List<MLPArtifact> pArts = pRev.getArtifacts();
 			HashMap<String, MLPArtifact> lArts = index(lRev.getArtifacts(), MLPArtifact::getArtifactId);
 			for (MLPArtifact pArt: pArts) {
 				String artifactId = pArt.getArtifactId();
+				if (!local.isStale(revisionId, pArt.getModified()) && (!checkArts || lArts.containsKey(artifactId))) {
+					log.debug("Artifact {} from peer {} is unchanged", artifactId, peerId);
+					continue;
+				}
 				log.debug("Checking artifact {} from peer {}", artifactId, peerId);
 				String pTag = pArt.getDescription();
 				pArt.setUserId(userId);
@@ -355,60 +587,92 @@ private boolean checkRevision(String revisionId, String solutionId, String catal
 				MLPArtifact lArt = lArts.get(artifactId);
 				if (lArt == null) {
 					events.check(Action.FETCH, "local artifact %s metadata", artifactId);
-					lArt = catalogService.getArtifact(artifactId);
+					lArt = local.getArtifact(artifactId);
 				}
+				boolean fromLocal = false;
 				if (lArt == null) {
 					log.info("Artifact {} doesn't exist locally.  Creating it", artifactId);
 					events.action(Action.CREATE, "artifact %s metadata", artifactId);
 					lArt = catalogService.createArtifact(pArt);
-				} else if (!Objects.equals(pArt.getSize(), lArt.getSize()) || !Objects.equals(pArt.getVersion(), lArt.getVersion())) {
+				} else {
+					boolean metaChanged = !Objects.equals(pArt.getSize(), lArt.getSize()) || !Objects.equals(pArt.getVersion(), lArt.getVersion());
+					Boolean same = sameDigest(((Artifact)pArt).getDigest(), lArt, contentService::getArtifactDigest);
+					boolean contentChanged = same == null? metaChanged: !same;
+					if (!metaChanged && !contentChanged) {
+						continue;
+					}
 					log.info("Updating artifact {}", artifactId);
 					events.action(Action.UPDATE, "artifact %s metadata", artifactId);
 					catalogService.updateArtifact(pArt);
-				} else {
-					continue;
+					if (!contentChanged) {
+						changed = true;
+						if (Objects.equals(pArt.getUri(), lArt.getUri())) {
+							continue;
+						}
+						log.info("Content of artifact {} is unchanged.  Copying it locally", artifactId);
+						fromLocal = true;
+					}
 				}
 				changed = true;
 				events.check(Action.FETCH, "artifact %s content", artifactId);
-				try (InputStream is = peer.getArtifactContent(artifactId)) {
+				if (!fromLocal && FederationClient.ATC_DOCKER.equals(pArt.getArtifactTypeCode()) && contentService.putArtifactLayers(pArt, () -> getManifest(peer, artifactId), digest -> peer.getArtifactBlob(artifactId, digest))) {
+					events.action(Action.COPY, "artifact %s layers", artifactId);
+					continue;
+				}
+				try (InputStream is = fromLocal? contentService.getArtifactContent(lArt): peer.getArtifactContent(artifactId)) {
 					events.action(Action.COPY, "artifact %s content", artifactId);
-					contentService.putArtifactContent(pArt, pTag, is);
+					contentService.putArtifactContent(pArt, fromLocal? lArt.getUri(): pTag, is);
 				} catch (IOException ioe) {
 					throw new ResourceAccessException("Failure copying artifact " + artifactId + " from peer " + peerId, ioe);
 				}
 			}
 			for (MLPArtifact pArt: pArts) {
-				if (lArts.get(pArt.getArtifactId()) == null) {
+				if (checkArts && lArts.get(pArt.getArtifactId()) == null) {
 					log.info("Adding artifact {} to revision {}", pArt.getArtifactId(), revisionId);
 					events.action(Action.ADD, "artifact %s to revision %s", pArt.getArtifactId(), revisionId);
 					catalogService.addArtifact(solutionId, revisionId, pArt.getArtifactId());
 				}
 			}
-			List<MLPDocument> pDocs = pRev.getDocuments();
 			HashMap<String, MLPDocument> lDocs = index(lRev.getDocuments(), MLPDocument::getDocumentId);
 			for (MLPDocument pDoc: pDocs) {
 				String documentId = pDoc.getDocumentId();
+				if (!local.isStale(revisionId, pDoc.getModified()) && (!checkDocs || lDocs.containsKey(documentId))) {
+					log.debug("Document {} from peer {} is unchanged", documentId, peerId);
+					continue;
+				}
 				log.debug("Checking document {} from peer {}", documentId, peerId);
 				pDoc.setUserId(userId);
 				contentService.setDocumentUri(solutionId, pDoc);
 				MLPDocument lDoc = lDocs.get(documentId);
 				if (lDoc == null) {
 					events.check(Action.FETCH, "local document %s metadata", documentId);
-					lDoc = catalogService.getDocument(documentId);
+					lDoc = local.getDocument(documentId);
 				}
+				boolean fromLocal = false;
 				if (lDoc == null) {
 					log.info("Document {} doesn't exist locally.  Creating it", documentId);
 					events.action(Action.CREATE, "document %s metadata", documentId);
 					catalogService.createDocument(pDoc);
-				} else if (!Objects.equals(pDoc.getSize(), lDoc.getSize()) || !Objects.equals(pDoc.getVersion(), lDoc.getVersion())) {
+				} else {
+					boolean metaChanged = !Objects.equals(pDoc.getSize(), lDoc.getSize()) || !Objects.equals(pDoc.getVersion(), lDoc.getVersion());
+					Boolean same = sameDigest(((Document)pDoc).getDigest(), lDoc, contentService::getDocumentDigest);
+					boolean contentChanged = same == null? metaChanged: !same;
+					if (!metaChanged && !contentChanged) {
+						continue;
+					}
 					log.info("Updating document {}", documentId);
 					events.action(Action.UPDATE, "document %s metadata", documentId);
 					catalogService.updateDocument(pDoc);
-				} else {
-					continue;
+					if (!contentChanged) {
+						if (Objects.equals(pDoc.getUri(), lDoc.getUri())) {
+							continue;
+						}
+						log.info("Content of document {} is unchanged.  Copying it locally", documentId);
+						fromLocal = true;
+					}
 				}
 				events.check(Action.FETCH, "document %s content", documentId);
-				try (InputStream is = peer.getDocumentContent(documentId)) {
+				try (InputStream is = fromLocal? contentService.getDocumentContent(lDoc): peer.getDocumentContent(documentId)) {
 					events.action(Action.COPY, "document %s content", documentId);
 					contentService.putDocumentContent(pDoc, is);
 				} catch (IOException ioe) {
@@ -416,7 +680,7 @@ private boolean checkRevision(String revisionId, String solutionId, String catal
 				}
 			}
 			for (MLPDocument pDoc: pDocs) {
-				if (lDocs.get(pDoc.getDocumentId()) == null) {
+				if (checkDocs && lDocs.get(pDoc.getDocumentId()) == null) {
 					log.info("Adding document {} to revision {} in catalog {}", pDoc.getDocumentId(), revisionId, catalogId);
 					events.action(Action.ADD, "document %s to revision %s in catalog %s", pDoc.getDocumentId(), revisionId, catalogId);
 					catalogService.addDocument(revisionId, catalogId, pDoc.getDocumentId());
@@ -428,39 +692,34 @@ private boolean checkRevision(String revisionId, String solutionId, String catal
 				catalogService.updateRevision(pRev);
 			}
 			if (changed) {
-				new Thread(() -> {
-					try {
-						clients.getSVClient().securityVerificationScan(solutionId, revisionId, "created", userId);
-					} catch (Exception e) {
-						log.error("SV scan failure on revision " + revisionId, e);
+				postSync.submit("SV scan of revision " + revisionId, () -> clients.getSVClient().securityVerificationScan(solutionId, revisionId, "created", userId));
+				postSync.submit("license asset registration of revision " + revisionId, () -> {
+					RegisterAssetRequest rar = new RegisterAssetRequest();
+					rar.setSolutionId(solutionId);
+					rar.setRevisionId(revisionId);
+					rar.setLoggedIdUser(userId);
+					RegisterAssetResponse rax = clients.getLMClient().register(rar).get();
+					if (!rax.isSuccess()) {
+						throw new IllegalStateException(rax.getMessage());
 					}
-				}).start();
-				new Thread(() -> {
-					try {
-						RegisterAssetRequest rar = new RegisterAssetRequest();
-						rar.setSolutionId(solutionId);
-						rar.setRevisionId(revisionId);
-						rar.setLoggedIdUser(userId);
-						RegisterAssetResponse rax = clients.getLMClient().register(rar).get();
-						if (!rax.isSuccess()) {
-							log.error("License asset registration failure on revision " + revisionId + ": " + rax.getMessage());
-						}
-					} catch (Exception e) {
-						log.error("License asset registration failure on revision " + revisionId, e);
-					}
-				}).start();
+				});
 			}
 			events.end(act);
 			return(changed);
 		}
 
-		private void checkSolution(String solutionId, String catalogId, boolean inLocalCatalog, FederationClient peer) {
+		/*
+		 * If revisionIds is not null, only the revisions it lists
+		 * are checked.
+		 */
+		private void checkSolution(String solutionId, LocalCatalog local, Set<String> revisionIds, FederationClient peer, Notifier events) {
+			String catalogId = local.catalogId;
 			log.info("Checking solution {} from peer {}", solutionId, peerId);
 			PendingAction act = events.begin("solution %s", solutionId);
 			events.check(Action.FETCH, "remote solution");
-			Solution pSol = (Solution)peer.getSolution(solutionId);
+			Solution pSol = (Solution)peer.getSolution(solutionId, false);
 			events.check(Action.FETCH, "local solution");
-			Solution lSol = (Solution)catalogService.getSolution(solutionId);
+			Solution lSol = local.getSolution(solutionId);
 			boolean changed = false;
 			boolean isnew = lSol == null;
 			if (isnew) {
@@ -496,18 +755,38 @@ private void checkSolution(String solutionId, String catalogId, boolean inLocalC
 				changed |= !Objects.equals(lSol.getSourceId(), pSol.getSourceId());
 				changed |= !Objects.equals(lSol.getUserId(), pSol.getUserId());
 			}
-			if (!Arrays.equals(lSol.getPicture(), pSol.getPicture())) {
+			/*
+			 * Peers that support it send the digest of the picture
+			 * instead of the picture, so it is only fetched when it
+			 * has changed.  The digest of the local picture is
+			 * remembered, so it isn't loaded on every poll.
+			 */
+			String pDigest = pSol.getPictureDigest();
+			boolean pictureChanged;
+			if (pDigest == null) {
+				pictureChanged = !Arrays.equals(isnew? null: catalogService.getPicture(solutionId), pSol.getPicture());
+			} else {
+				pictureChanged = !pDigest.equals(isnew? contentService.getPictureDigest((byte[])null): catalogService.getPictureDigest(lSol));
+			}
+			if (pictureChanged) {
+				if (pDigest != null) {
+					events.check(Action.FETCH, "remote picture");
+					pSol.setPicture(peer.getSolutionPicture(solutionId));
+				}
 				log.info("Updating picture for solution {}", solutionId);
 				events.action(Action.UPDATE, "picture for solution %s", solutionId);
 				catalogService.savePicture(solutionId, pSol.getPicture());
 			}
-			if (!inLocalCatalog) {
+			if (!local.contains(solutionId)) {
 				log.info("Adding solution {} to catalog {}", solutionId, catalogId);
 				events.action(Action.ADD, "solution %s to catalog %s", solutionId, catalogId);
 				catalogService.addSolution(solutionId, catalogId);
 			}
 			for (MLPSolutionRevision rev: pSol.getRevisions()) {
-				changed |= checkRevision(rev.getRevisionId(), solutionId, catalogId, peer);
+				if (revisionIds != null && !revisionIds.contains(rev.getRevisionId())) {
+					continue;
+				}
+				changed |= checkRevision(rev.getRevisionId(), solutionId, local, peer, events);
 			}
 			if (changed && !isnew) {
 				events.action(Action.UPDATE, "solution %s", solutionId);
@@ -517,25 +796,120 @@ private void checkSolution(String solutionId, String catalogId, boolean inLocalC
 			events.end(act);
 		}
 
-		private void checkCatalog(String catalogId) {
+		private void checkSolution(String solutionId, LocalCatalog local, Set<String> revisionIds, FederationClient peer) {
+			Notifier solutionEvents = new Notifier(clients.getCDSClient(), userId);
+			try {
+				checkSolution(solutionId, local, revisionIds, peer, solutionEvents);
+			} catch (Exception ex) {
+				throw new ReportedFailure(solutionEvents.fail(null, ex.toString()), ex);
+			}
+		}
+
+		/*
+		 * Solutions are checked in parallel, each with its own
+		 * Notifier, but the revisions of any one solution are still
+		 * checked in order.  If checking any solution fails, the
+		 * solutions not yet started are skipped, the ones already
+		 * started are allowed to finish, and the failure is rethrown.
+		 * Returns false if the check was cancelled.
+		 *
+		 * If since is not null, the peer is asked which solutions
+		 * have changed since then, and solutions already in the
+		 * local catalog are only checked if they, or some of their
+		 * revisions, have changed.  Peers that don't support listing
+		 * changes get every solution checked.
+		 *
+		 * The peer's list of solutions is fetched a page at a time,
+		 * and checking of each solution starts as soon as its page
+		 * arrives.
+		 */
+		private boolean checkCatalog(String catalogId, Instant since) {
 			log.info("Checking catalog {} from peer {}", catalogId, peerId);
 			PendingAction act = events.begin("catalog %s from peer %s", catalogId, peerId);
 			FederationClient peer = clients.getFederationClient(peerService.getPeer(peerId).getApiUrl());
-			events.check(Action.FETCH, "list of solutions in remote catalog");
-			List<MLPSolution> peerSolutions = peer.getSolutions(catalogId);
+			HashMap<String, Set<String>> changes = null;
+			if (since != null) {
+				events.check(Action.FETCH, "list of changed solutions in remote catalog");
+				try {
+					changes = new HashMap<>();
+					for (MLPSolution solution: peer.getSolutionChanges(catalogId, since)) {
+						Set<String> revisionIds = new HashSet<>();
+						for (MLPSolutionRevision rev: ((Solution)solution).getRevisions()) {
+							revisionIds.add(rev.getRevisionId());
+						}
+						changes.put(solution.getSolutionId(), revisionIds);
+					}
+				} catch (HttpClientErrorException.NotFound nfe) {
+					log.info("Peer {} does not list changes to catalog {}.  Checking all solutions", peerId, catalogId);
+					changes = null;
+				}
+			}
 			events.check(Action.FETCH, "list of solutions in local catalog");
-			HashMap<String, MLPSolution> localSolutions = index(catalogService.getSolutions(catalogId), MLPSolution::getSolutionId);
-			if (localSolutions.isEmpty() && !peerSolutions.isEmpty() && index(catalogService.getAllCatalogs(), MLPCatalog::getCatalogId).get(catalogId) == null) {
-				log.info("Catalog {} doesn't exist locally.  Creating it", catalogId);
-				events.action(Action.CREATE, "catalog %s", catalogId);
-				catalogService.createCatalog(index(peer.getCatalogs(), MLPCatalog::getCatalogId).get(catalogId));
+			LocalCatalog local = new LocalCatalog(catalogId, changes == null? null: since);
+			List<Future<?>> work = new ArrayList<>();
+			RuntimeException failure = null;
+			boolean cancelled = false;
+			try {
+				events.check(Action.FETCH, "list of solutions in remote catalog");
+				Iterator<MLPSolution> peerSolutions = peer.iterateSolutions(catalogId, PAGE_SIZE);
+				if (local.isEmpty() && peerSolutions.hasNext() && index(catalogService.getAllCatalogs(), MLPCatalog::getCatalogId).get(catalogId) == null) {
+					log.info("Catalog {} doesn't exist locally.  Creating it", catalogId);
+					events.action(Action.CREATE, "catalog %s", catalogId);
+					catalogService.createCatalog(index(peer.getCatalogs(), MLPCatalog::getCatalogId).get(catalogId));
+					events.check(Action.FETCH, "list of solutions in remote catalog");
+				}
+				/*
+				 * Later pages of the peer's list are fetched while
+				 * the solutions from earlier pages are being checked.
+				 */
+				while (peerSolutions.hasNext()) {
+					String solutionId = peerSolutions.next().getSolutionId();
+					Set<String> revisionIds = null;
+					if (local.contains(solutionId) && changes != null) {
+						revisionIds = changes.get(solutionId);
+						if (revisionIds == null) {
+							log.debug("Solution {} from peer {} is unchanged", solutionId, peerId);
+							continue;
+						}
+					}
+					Set<String> checkRevisionIds = revisionIds;
+					work.add(submit(() -> checkSolution(solutionId, local, checkRevisionIds, peer)));
+				}
 				events.end();
+			} catch (RuntimeException re) {
+				failure = re;
+				cancelPending();
+			}
+			try {
+				for (Future<?> solutionWork: work) {
+					try {
+						solutionWork.get();
+					} catch (CancellationException ce) {
+						cancelled = true;
+					} catch (ExecutionException ee) {
+						if (failure == null) {
+							failure = ee.getCause() instanceof RuntimeException? (RuntimeException)ee.getCause(): new RuntimeException(ee.getCause());
+							cancelPending();
+						}
+					}
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				cancelPending();
+				cancelled = true;
+			} finally {
+				clearPending();
 			}
-			for (MLPSolution solution: peerSolutions) {
-				checkSolution(solution.getSolutionId(), catalogId, localSolutions.get(solution.getSolutionId()) != null, peer);
+			if (failure != null) {
+				throw failure;
+			}
+			if (cancelled) {
+				log.info("Cancelled checking catalog {} from peer {}", catalogId, peerId);
+				return false;
 			}
 			log.info("Checked catalog {} from peer {}", catalogId, peerId);
 			events.noteEnd(act);
+			return true;
 		}
 
 		private void checkSubscription() {
@@ -560,8 +934,20 @@ private void checkSubscription() {
 			events.end();
 			String[] catalogs = (String[])xcatalogs;
 			Instant startTime = Instant.now();
+			Instant since = subscription.getProcessed();
+			if (since != null && startTime.isBefore(lastFullCheck.plusSeconds(federation.getSync().getFullCheckInterval()))) {
+				since = since.minus(CLOCK_SKEW);
+			} else {
+				since = null;
+			}
 			for (String catalogId: catalogs) {
-				checkCatalog(catalogId);
+				if (!checkCatalog(catalogId, since)) {
+					log.info("Subscription {} cancelled for peer {}", subId, peerId);
+					return;
+				}
+			}
+			if (since == null) {
+				lastFullCheck = startTime;
 			}
 			subscription.setProcessed(startTime);
 			peerService.updateSubscription(subscription);
@@ -573,6 +959,9 @@ public void run() {
 			events = new Notifier(clients.getCDSClient(), userId);
 			try {
 				checkSubscription();
+			} catch (ReportedFailure rf) {
+				log.error(String.format("Unexpected error processing subscription %s for peer %s", subId, peerId), rf.getCause());
+				events.failNested(null, rf.getMessage());
 			} catch (Exception ex) {
 				log.error(String.format("Unexpected error processing subscription %s for peer %s", subId, peerId), ex);
 				events.fail(null, ex.toString());
@@ -583,6 +972,26 @@ public void run() {
 
 	private HashMap<Long, PeerSubscriptionPoller> subscriptions = new HashMap<>();
 
+	private ExecutorService workers;
+
+	private synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			workers = Executors.newFixedThreadPool(Math.max(1, federation.getSync().getParallelism()), new CustomizableThreadFactory("federation-sync-"));
+		}
+		return workers;
+	}
+
+	/**
+	 * Stop checking solutions when shutting down.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
 	/**
 	 * Schedule an immediate poll of the specified subscription.
 	 * @param subscription The subscription to poll.
@@ -597,12 +1006,22 @@ public void run() {
 	 */
 	@Scheduled(initialDelay=5000,fixedRateString="${peer.jobchecker.interval:400}000")
 	public void checkPeerJobs() {
-		HashSet<Long> valid = new HashSet<>();
-		for (MLPPeer peer: peerService.getPeers()) {
-			if (peer.isSelf()) {
-				continue;
+		/*
+		 * Page through the whole list of peers before fetching any
+		 * subscriptions, so the pages are fetched back to back and
+		 * peers added or removed meanwhile are less likely to shift
+		 * another peer, whose subscriptions would then be cancelled,
+		 * off the page it was on.
+		 */
+		HashSet<String> peerIds = new HashSet<>();
+		peerService.forEachPeer(peer -> {
+			if (!peer.isSelf()) {
+				peerIds.add(peer.getPeerId());
 			}
-			for (MLPPeerSubscription subscription: peerService.getSubscriptions(peer.getPeerId())) {
+		});
+		HashSet<Long> valid = new HashSet<>();
+		for (String peerId: peerIds) {
+			for (MLPPeerSubscription subscription: peerService.getSubscriptions(peerId)) {
 				require(subscription, false);
 				valid.add(subscription.getSubId());
 			}
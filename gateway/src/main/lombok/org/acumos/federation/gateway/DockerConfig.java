@@ -100,4 +100,47 @@ public class DockerConfig {
 	 * @return The email address.
 	 */
 	private String registryEmail;
+	/**
+	 * Whether to move images directly between the Docker registry and
+	 * peers, using the registry's HTTP API, rather than pulling,
+	 * saving, loading, and pushing them through the local Docker host.
+	 *
+	 * @param registryDirect Whether to use the registry directly.
+	 * @return Whether to use the registry directly.
+	 */
+	private boolean registryDirect;
+	/**
+	 * How long, in seconds, to wait for the local Docker host to
+	 * complete a pull or push, or, during other operations, to send
+	 * or accept more data.  0 means wait indefinitely.
+	 *
+	 * @param timeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int timeout = 3600;
+	/**
+	 * How long, in seconds, to wait for the local Docker host to
+	 * accept a connection or answer a ping, before replacing the
+	 * client used to access it.
+	 *
+	 * @param pingTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int pingTimeout = 10;
+	/**
+	 * How long, in seconds, the client used to access the local
+	 * Docker host can go unused, before the host is pinged, on the
+	 * client's next use, to check it is still responding.
+	 *
+	 * @param idleTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int idleTimeout = 60;
+	/**
+	 * The maximum number of connections to the local Docker host.
+	 *
+	 * @param maxConnections The number of connections.
+	 * @return The number of connections.
+	 */
+	private int maxConnections = 20;
 }
@@ -31,6 +31,117 @@
 @Data
 @EqualsAndHashCode(callSuper=true)
 public class FederationConfig extends ServerConfig {
+	/**
+	 * Configuration bean for synchronizing subscriptions to peers' catalogs.
+	 */
+	@Data
+	static public class Sync {
+		/**
+		 * The maximum number of solutions to check, at the same
+		 * time, across all subscriptions.
+		 *
+		 * @param parallelism The number of solutions.
+		 * @return The number of solutions.
+		 */
+		private int parallelism = 4;
+		/**
+		 * How often, in seconds, to check every solution in a
+		 * subscribed catalog, rather than only those the peer
+		 * lists as changed.  0 means always check every solution.
+		 *
+		 * @param fullCheckInterval The time in seconds.
+		 * @return The time in seconds.
+		 */
+		private int fullCheckInterval = 86400;
+	}
+	/**
+	 * Configuration bean for listing items in the common data service.
+	 */
+	@Data
+	static public class Cds {
+		/**
+		 * The number of items to ask for in each request.
+		 *
+		 * @param pageSize The number of items.
+		 * @return The number of items.
+		 */
+		private int pageSize = 100;
+		/**
+		 * The maximum number of requests, for pages of a single
+		 * listing, to make at the same time.
+		 *
+		 * @param parallelism The number of requests.
+		 * @return The number of requests.
+		 */
+		private int parallelism = 4;
+	}
+	/**
+	 * Configuration bean for the work done after copying a revision
+	 * from a peer.
+	 */
+	@Data
+	static public class PostSync {
+		/**
+		 * The maximum number of jobs, such as security scans and
+		 * license registrations, to run at the same time.
+		 *
+		 * @param parallelism The number of jobs.
+		 * @return The number of jobs.
+		 */
+		private int parallelism = 2;
+		/**
+		 * The maximum number of jobs to start per minute, or 0
+		 * for no limit.
+		 *
+		 * @param rate The number of jobs per minute.
+		 * @return The number of jobs per minute.
+		 */
+		private int rate = 60;
+		/**
+		 * The maximum number of jobs waiting to run.
+		 *
+		 * @param maxPending The number of jobs.
+		 * @return The number of jobs.
+		 */
+		private int maxPending = 10000;
+		/**
+		 * The number of times to try a job before giving up.
+		 *
+		 * @param maxAttempts The number of tries.
+		 * @return The number of tries.
+		 */
+		private int maxAttempts = 3;
+		/**
+		 * How long, in seconds, to wait before the first retry of
+		 * a job.  The wait doubles after each further failure.
+		 *
+		 * @param retryDelay The time in seconds.
+		 * @return The time in seconds.
+		 */
+		private int retryDelay = 60;
+	}
+	/**
+	 * Configuration bean for sending artifact and document content to peers.
+	 */
+	@Data
+	static public class Content {
+		/**
+		 * The maximum number of threads preparing content to
+		 * send, across all peers.
+		 *
+		 * @param parallelism The number of threads.
+		 * @return The number of threads.
+		 */
+		private int parallelism = 8;
+		/**
+		 * The maximum number of transfers, of content, any one
+		 * peer may have in progress at the same time.
+		 *
+		 * @param perPeer The number of transfers.
+		 * @return The number of transfers.
+		 */
+		private int perPeer = 2;
+	}
 	/**
 	 * Enable peer auto-registration.
 	 *
@@ -38,4 +149,89 @@ public class FederationConfig extends ServerConfig {
 	 * @return Whether auto-registration is enabled.
 	 */
 	private boolean registrationEnabled;
+	/**
+	 * How long, in seconds, to keep an unused client for accessing a
+	 * peer.
+	 *
+	 * @param clientIdleTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int clientIdleTimeout = 300;
+	/**
+	 * How long, in seconds, to remember which peer, if any, has a
+	 * given certificate subject name, when authenticating requests.
+	 * 0 means look the peer up on every request.
+	 *
+	 * @param peerCacheTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int peerCacheTimeout = 60;
+	/**
+	 * How long, in seconds, to remember whether a peer may access a
+	 * catalog or solution.  0 means check on every request.
+	 *
+	 * @param accessCacheTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int accessCacheTimeout = 60;
+	/**
+	 * How long, in seconds, to use the list of local catalogs, and
+	 * their sizes, before reloading it in the background.  0 means
+	 * load it on every request.
+	 *
+	 * @param catalogCacheTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int catalogCacheTimeout = 30;
+	/**
+	 * How long, in seconds, to remember a solution or revision sent to
+	 * a peer.  0 means look it up on every request.
+	 *
+	 * @param metadataCacheTimeout The time in seconds.
+	 * @return The time in seconds.
+	 */
+	private int metadataCacheTimeout = 60;
+	/**
+	 * The maximum number of solutions and revisions to remember.
+	 *
+	 * @param metadataCacheSize The number of items.
+	 * @return The number of items.
+	 */
+	private int metadataCacheSize = 1000;
+	/**
+	 * The maximum number of threads looking up the parts of solutions
+	 * and revisions, such as artifacts and documents, at the same time.
+	 *
+	 * @param lookupParallelism The number of threads.
+	 * @return The number of threads.
+	 */
+	private int lookupParallelism = 8;
+	/**
+	 * Subscription synchronization parameters.
+	 *
+	 * @param sync The synchronization parameters.
+	 * @return The synchronization parameters.
+	 */
+	private Sync sync = new Sync();
+	/**
+	 * Common data service listing parameters.
+	 *
+	 * @param cds The listing parameters.
+	 * @return The listing parameters.
+	 */
+	private Cds cds = new Cds();
+	/**
+	 * Content transfer parameters.
+	 *
+	 * @param content The content transfer parameters.
+	 * @return The content transfer parameters.
+	 */
+	private Content content = new Content();
+	/**
+	 * Post-synchronization job parameters.
+	 *
+	 * @param postSync The job parameters.
+	 * @return The job parameters.
+	 */
+	private PostSync postSync = new PostSync();
 }
@@ -20,6 +20,7 @@
 package org.acumos.federation.gateway;
 
 import org.acumos.federation.client.config.BasicAuthConfig;
+import org.acumos.federation.client.config.PoolConfig;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -37,4 +38,11 @@ public class ServiceConfig extends BasicAuthConfig {
 	 * @return The URL.
 	 */
 	private String url;
+	/**
+	 * Connection pool configuration for accessing the service.
+	 *
+	 * @param pool The connection pool configuration.
+	 * @return The connection pool configuration.
+	 */
+	private PoolConfig pool = new PoolConfig();
 }
@@ -21,6 +21,8 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import org.junit.runner.RunWith;
 import org.junit.Test;
 
@@ -30,6 +32,8 @@
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import com.github.dockerjava.api.DockerClient;
+
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes=GatewayServer.class)
 @SpringBootTest(
@@ -46,6 +50,7 @@
 	"nexus.name-separator=,",
 	"nexus.url=http://nexus.example.org",
 	"docker.host=tcp://localhost:999",
+	"docker.registry-url=registry.example.org:5000",
 	"cdms.client.url=http://cdms.example.org",
 	"verification.url=http://svserver.example.org"
     }
@@ -69,10 +74,20 @@ public class ClientsTest {
 
 	@Test
 	public void testClients() throws Exception {
-		assertNotNull(clients.getFederationClient("https://somepeer.example.org"));
+		assertEquals(clients.getFederationClient("https://somepeer.example.org"), clients.getFederationClient("https://somepeer.example.org"));
 		assertEquals(clients.getCDSClient(), clients.getCDSClient());
 		assertEquals(clients.getNexusClient(), clients.getNexusClient());
-		assertNotNull(clients.getDockerClient());
+		DockerClient docker = clients.getDockerClient();
+		assertNotNull(docker);
+		assertSame(docker, clients.getDockerClient());
+		clients.dockerFailed(docker);
+		DockerClient replacement = clients.getDockerClient();
+		assertNotSame(docker, replacement);
+		clients.releaseDockerClient(docker);
+		clients.releaseDockerClient(docker);
+		clients.releaseDockerClient(replacement);
+		assertSame(replacement, clients.getDockerClient());
+		assertEquals(clients.getRegistryClient(), clients.getRegistryClient());
 		assertEquals(clients.getSVClient(), clients.getSVClient());
 	}
 }
@@ -21,12 +21,24 @@
 package org.acumos.federation.gateway;
 
 import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.servlet.http.HttpServletResponse;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Test;
 import org.junit.Before;
@@ -42,16 +54,26 @@
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpClientErrorException.Conflict;
+import org.springframework.web.client.HttpClientErrorException.BadRequest;
 import org.springframework.web.client.HttpClientErrorException.Forbidden;
 import org.springframework.web.client.HttpClientErrorException.NotFound;
 import org.springframework.web.client.HttpServerErrorException.InternalServerError;
+import org.springframework.web.client.RestTemplate;
 
 import org.acumos.cds.client.ICommonDataServiceRestClient;
 import org.acumos.cds.client.CommonDataServiceRestClientImpl;
+import org.acumos.cds.domain.MLPArtifact;
+import org.acumos.cds.domain.MLPCatalog;
+import org.acumos.cds.domain.MLPSolution;
 
 import org.acumos.federation.client.FederationClient;
 import org.acumos.federation.client.GatewayClient;
@@ -59,8 +81,10 @@
 import org.acumos.federation.client.config.ClientConfig;
 import org.acumos.federation.client.config.BasicAuthConfig;
 import org.acumos.federation.client.config.TlsConfig;
+import org.acumos.federation.client.data.Artifact;
 import org.acumos.federation.client.data.JsonResponse;
 import org.acumos.federation.client.data.ModelData;
+import org.acumos.federation.client.data.Solution;
 
 import org.acumos.federation.client.test.ClientMocking;
 import org.apache.http.entity.ContentType;
@@ -105,11 +129,26 @@ public class FederationControllerTest {
 	@Autowired
 	private PeerService peerService;
 
+	@Autowired
+	private ContentExecutor contentExecutor;
+
+	@Autowired
+	private DockerConfig dockerConfig;
+
+	@Autowired
+	private CatalogService catalogService;
+
 	@MockBean
 	private Clients clients;
 
 	private SimulatedDockerClient docker;
 
+	private AtomicInteger accessChecks = new AtomicInteger();
+
+	private AtomicInteger catalogLoads = new AtomicInteger();
+
+	private AtomicInteger solutionLoads = new AtomicInteger();
+
 	static ClientConfig anonConfig() {
 		ClientConfig ret = getConfig("bogus");
 		ret.getSsl().setKeyStore(null);
@@ -143,25 +182,32 @@ public void init() throws Exception {
 		    .on("PUT /peer/2", "")
 		    .on("GET /peer/search?subjectName=gateway.acumosc.org&_j=a&page=0&size=100", xq("{ 'content': [ ], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 0 }"))
 		    .on("POST /peer", xq("{}"))
-		    .on("GET /catalog/search?accessTypeCode=PB&_j=a&page=0&size=100", xq("{ 'content': [ { 'catalogId': '1' }, { 'catalogId': '2' } ], 'last': true, 'number': 2, 'size': 100, 'numberOfElements': 2 }"))
+		    .on("GET /catalog?page=0&size=100", xq("{ 'content': [ { 'catalogId': '1', 'accessTypeCode': 'PB' }, { 'catalogId': '2', 'accessTypeCode': 'PB' }, { 'catalogId': '7', 'accessTypeCode': 'RS' }, { 'catalogId': '9', 'accessTypeCode': 'RS' } ], 'last': true, 'number': 4, 'size': 100, 'numberOfElements': 4 }"), x -> catalogLoads.incrementAndGet())
 		    .on("GET /access/peer/1/catalog", xq("[ '2', '7', '8' ]"))
+		    .on("GET /peer?page=0&size=1", xq("{ 'content': [ { 'peerId': '1' } ], 'last': false, 'number': 0, 'size': 1, 'totalPages': 3, 'numberOfElements': 1 }"))
+		    .on("GET /peer?page=1&size=1", xq("{ 'content': [ { 'peerId': '2' } ], 'last': false, 'number': 1, 'size': 1, 'totalPages': 3, 'numberOfElements': 1 }"))
+		    .on("GET /peer?page=2&size=1", xq("{ 'content': [ { 'peerId': '3' } ], 'last': false, 'number': 2, 'size': 1, 'totalPages': 4, 'numberOfElements': 1 }"))
+		    .on("GET /peer?page=3&size=1", xq("{ 'content': [ { 'peerId': '4' } ], 'last': true, 'number': 3, 'size': 1, 'totalPages': 4, 'numberOfElements': 1 }"))
 		    .on("GET /peer?page=0&size=100", xq("{ 'content': [ { 'peerId': '1' }, { 'peerId': '2' } ], 'last': true, 'number': 2, 'size': 100, 'numberOfElements': 2 }"))
 		    .on("GET /catalog/1/solution/count", xq("{ 'count': 1 }"))
 		    .on("GET /catalog/2/solution/count", xq("{ 'count': 2 }"))
-		    .on("GET /catalog/7", xq("{ 'catalogId': '7' }"))
 		    .on("GET /catalog/7/solution/count", xq("{ 'count': 3 }"))
-		    .on("GET /catalog/8", "")
+		    .on("GET /catalog/9/solution/count", xq("{ 'count': 4 }"))
 		    .on("GET /peer/search?self=true&subjectName=No.Such.Peer&_j=a&page=0&size=100", xq("{ 'content': [], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 0 }"))
-		    .on("GET /access/peer/1/catalog/somecatid", xq("{ 'count': '1' }"))
+		    .on("GET /access/peer/1/catalog/somecatid", xq("{ 'count': '1' }"), x -> accessChecks.incrementAndGet())
 		    .on("GET /access/peer/1/catalog/badcatid", xq("{ 'count': '0' }"))
+		    .on("GET /catalog/solution?ctlg=somecatid&page=0&size=1", xq("{ 'content': [ { 'solutionId': 'somesolid' } ], 'last': false, 'number': 0, 'size': 1, 'totalElements': 2, 'numberOfElements': 1 }"))
+		    .on("GET /catalog/solution?ctlg=somecatid&page=1&size=1", xq("{ 'content': [ { 'solutionId': 'othersolid', 'origin': 'https://someoneelse.org:1234/solution/othersolid' } ], 'last': true, 'number': 1, 'size': 1, 'totalElements': 2, 'numberOfElements': 1 }"))
 		    .on("GET /catalog/solution?ctlg=somecatid&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'somesolid' }, { 'solutionId': 'othersolid', 'origin': 'https://someoneelse.org:1234/solution/othersolid' } ], 'last': true, 'number': 2, 'size': 100, 'numberOfElements': 2 }"))
+		    .on("GET /solution/search/date?ctlg=somecatid&inst=1546300800000&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'somesolid' }, { 'solutionId': 'othersolid' } ], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 2 }"))
 		    .on("GET /access/peer/1/solution/somesolid", xq("{ 'count': '1' }"))
 		    .on("GET /access/peer/1/solution/badsolid", xq("{ 'count': '0' }"))
 		    .on("GET /access/peer/1/solution/norevssolid", xq("{ 'count': '1' }"))
-		    .on("GET /solution/somesolid", xq("{ 'solutionId': 'somesolid' }"))
+		    .on("GET /solution/somesolid", xq("{ 'solutionId': 'somesolid' }"), x -> solutionLoads.incrementAndGet())
 		    .on("GET /solution/norevssolid", xq("{ 'solutionId': 'norevssolid' }"))
 		    .on("GET /solution/somesolid/revision", xq("[ { 'solutionId': 'somesolid', 'revisionId': 'somerevid' }, { 'solutionId': 'somesolid', 'revisionId': 'otherrevid' } ]"))
 		    .on("GET /solution/norevssolid/revision", "[]")
+		    .on("GET /solution/othersolid/revision", "[]")
 		    .on("GET /solution/somesolid/pic", "")
 		    .on("GET /solution/ignored/revision/somerevid", xq("{ 'solutionId': 'somesolid', 'revisionId': 'somerevid' }"))
 		    .on("GET /solution/ignored/revision/badrevid", xq("{ 'solutionId': 'badsolid', 'revisionId': 'badrevid' }"))
@@ -172,7 +218,7 @@ public void init() throws Exception {
 		    .on("GET /revision/somerevid/catalog/somecatid/document", xq("[ { 'documentId': 'somedocid' }, { 'documentId': 'otherdocid' } ]"))
 		    .on("GET /artifact/someartid", xq("{ 'artifactId': 'someartid', 'uri': 'a/b/c/d' }"))
 		    .on("GET /artifact/dockerartid", xq("{ 'artifactId': 'someartid', 'uri': 'dockerregistry:1234/a/b:1.0', 'artifactTypeCode': 'DI' }"))
-		    .on("GET /document/somedocid", xq("{ 'documentId': 'somedocid', 'uri': 'd/c/b/a' }"))
+		    .on("GET /document/somedocid", xq("{ 'documentId': 'somedocid', 'uri': 'd/c/b/a', 'size': 4 }"))
 		    .on("GET /peer/1/sub", "[]")
 		    .on("GET /peer/2/sub", "[]")
 		    .on("GET /solution/ignored/revision/altrevid", xq("{ 'solutionId': 'somesolid', 'revisionId': 'altrevid' }"))
@@ -193,6 +239,9 @@ public void init() throws Exception {
 		(new ClientMocking())
 		    .on("GET /a/b/c/d", "vwxyz")
 		    .on("GET /d/c/b/a", "wxyz")
+		    .on("GET /d/c/b/a.sha256", "0123")
+		    .on("GET /a/b/c.x", "vwxyz")
+		    .on("GET /a/b/c.x.sha256", "b273d4d4c217f4faac9bc81e32142477424ba0543540b232c7579db3749a812e")
 		    .applyTo(nexusClient);
 		when(clients.getNexusClient()).thenReturn(nexusClient);
 
@@ -247,15 +296,61 @@ public void testConfig() throws Exception {
 			// expected case
 		}
 		assertEquals(3, self.getCatalogs().size());
+		int loads = catalogLoads.get();
+		assertEquals(3, self.getCatalogs().size());
+		assertEquals(loads, catalogLoads.get());
 		assertNull(peerService.getSelf("No.Such.Peer"));
+		assertSame(peerService.getPeerBySubject("gateway.acumosb.org"), peerService.getPeerBySubject("gateway.acumosb.org"));
+		assertEquals(2, self.getSolutions("somecatid").size());
+		int checks = accessChecks.get();
 		assertEquals(2, self.getSolutions("somecatid").size());
+		assertEquals(checks, accessChecks.get());
+		List<MLPSolution> streamed = new ArrayList<>();
+		self.getSolutions("somecatid", streamed::add);
+		assertEquals(2, streamed.size());
+		assertNotNull(streamed.get(0).getOrigin());
+		Iterator<MLPSolution> paged = self.iterateSolutions("somecatid", 1);
+		assertEquals("somesolid", paged.next().getSolutionId());
+		assertEquals("othersolid", paged.next().getSolutionId());
+		assertFalse(paged.hasNext());
+		try {
+			self.iterateSolutions("badcatid", 1).hasNext();
+			fail();
+		} catch (NotFound nf) {
+			// expected case
+		}
+		try {
+			self.iterateSolutions("somecatid", 0).hasNext();
+			fail();
+		} catch (BadRequest br) {
+			// expected case
+		}
+		int catalogCount = 0;
+		for (Iterator<MLPCatalog> catalogs = self.iterateCatalogs(2); catalogs.hasNext(); catalogs.next()) {
+			catalogCount++;
+		}
+		assertEquals(3, catalogCount);
 		try {
 			self.getSolutions("badcatid");
 			fail();
 		} catch (NotFound nf) {
 			// expected case
 		}
+		assertEquals(1, self.getSolutionChanges("somecatid", Instant.parse("2019-01-01T00:00:00Z")).size());
+		try {
+			self.getSolutionChanges("badcatid", Instant.parse("2019-01-01T00:00:00Z"));
+			fail();
+		} catch (NotFound nf) {
+			// expected case
+		}
 		assertNotNull(self.getSolution("somesolid"));
+		int solLoads = solutionLoads.get();
+		assertNotNull(self.getSolution("somesolid").getOrigin());
+		assertEquals(solLoads, solutionLoads.get());
+		Solution noPic = (Solution)self.getSolution("somesolid", false);
+		assertNull(noPic.getPicture());
+		assertEquals("sha256:e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", noPic.getPictureDigest());
+		assertNull(self.getSolutionPicture("somesolid"));
 		try {
 			self.getSolution("badsolid");
 			fail();
@@ -294,7 +389,11 @@ public void testConfig() throws Exception {
 		} catch (NotFound nf) {
 			// expected case
 		}
-		assertEquals(3, self.getArtifacts("somesolid", "somerevid").size());
+		List<MLPArtifact> artifacts = self.getArtifacts("somesolid", "somerevid");
+		assertEquals(3, artifacts.size());
+		assertNull(((Artifact)artifacts.get(0)).getDigest());
+		assertNull(((Artifact)artifacts.get(1)).getDigest());
+		assertEquals("sha256:b273d4d4c217f4faac9bc81e32142477424ba0543540b232c7579db3749a812e", ((Artifact)artifacts.get(2)).getDigest());
 		try {
 			self.getArtifacts("somesolid", "badrevid");
 			fail();
@@ -314,6 +413,85 @@ public void testConfig() throws Exception {
 		try (InputStream is = self.getArtifactContent("dockerartid")) {
 			assertEquals(7, is.read(buf));
 		}
+		RestTemplate raw = ClientBase.buildRestTemplate("https://localhost:" + port, getConfig("acumosa"), null, null);
+		ResponseEntity<String> tagged = raw.getForEntity(FederationClient.SOLUTION_URI, String.class, "somesolid");
+		String etag = tagged.getHeaders().getETag();
+		assertNotNull(etag);
+		HttpHeaders tagHeaders = new HttpHeaders();
+		tagHeaders.setIfNoneMatch(etag);
+		ResponseEntity<String> unchanged = raw.exchange(FederationClient.SOLUTION_URI, HttpMethod.GET, new HttpEntity<>(tagHeaders), String.class, "somesolid");
+		assertEquals(HttpStatus.NOT_MODIFIED, unchanged.getStatusCode());
+		assertNull(unchanged.getBody());
+		tagHeaders.setIfNoneMatch("\"0123\"");
+		assertEquals(HttpStatus.OK, raw.exchange(FederationClient.SOLUTION_URI, HttpMethod.GET, new HttpEntity<>(tagHeaders), String.class, "somesolid").getStatusCode());
+		HttpHeaders rangeHeaders = new HttpHeaders();
+		rangeHeaders.set(HttpHeaders.RANGE, "bytes=2-");
+		ResponseEntity<byte[]> ranged = raw.exchange(FederationClient.ARTIFACT_URI, HttpMethod.GET, new HttpEntity<>(rangeHeaders), byte[].class, "dockerartid");
+		assertEquals(HttpStatus.OK, ranged.getStatusCode());
+		assertNull(ranged.getHeaders().getETag());
+		assertEquals("abcdefg", new String(ranged.getBody()));
+		rangeHeaders.set(HttpHeaders.RANGE, "bytes=1-2");
+		ranged = raw.exchange(FederationClient.DOCUMENT_URI, HttpMethod.GET, new HttpEntity<>(rangeHeaders), byte[].class, "somedocid");
+		assertEquals(HttpStatus.PARTIAL_CONTENT, ranged.getStatusCode());
+		assertEquals("bytes 1-2/4", ranged.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertEquals("\"sha256:0123\"", ranged.getHeaders().getETag());
+		assertEquals("xy", new String(ranged.getBody()));
+		rangeHeaders.set(HttpHeaders.IF_RANGE, "\"sha256:0123\"");
+		assertEquals("xy", new String(raw.exchange(FederationClient.DOCUMENT_URI, HttpMethod.GET, new HttpEntity<>(rangeHeaders), byte[].class, "somedocid").getBody()));
+		rangeHeaders.set(HttpHeaders.IF_RANGE, "\"sha256:4567\"");
+		ranged = raw.exchange(FederationClient.DOCUMENT_URI, HttpMethod.GET, new HttpEntity<>(rangeHeaders), byte[].class, "somedocid");
+		assertEquals(HttpStatus.OK, ranged.getStatusCode());
+		assertEquals("wxyz", new String(ranged.getBody()));
+		rangeHeaders.remove(HttpHeaders.IF_RANGE);
+		rangeHeaders.set(HttpHeaders.RANGE, "bytes=9-");
+		try {
+			raw.exchange(FederationClient.DOCUMENT_URI, HttpMethod.GET, new HttpEntity<>(rangeHeaders), byte[].class, "somedocid");
+			fail();
+		} catch (HttpClientErrorException hcee) {
+			assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, hcee.getStatusCode());
+		}
+		try {
+			self.getArtifactManifest("dockerartid");
+			fail();
+		} catch (NotFound nf) {
+			// expected case
+		}
+		RegistryClient registry = new RegistryClient("dockerregistry:1234", new ClientConfig());
+		(new ClientMocking())
+		    .on("GET /v2/a/b/manifests/1.0", xq("{ 'schemaVersion': 2, 'config': { 'digest': 'sha256:cfg', 'size': 3 }, 'layers': [ { 'digest': 'sha256:lyr', 'size': 10 } ] }"))
+		    .on("GET /v2/a/b/blobs/sha256:lyr", "some layer")
+		    .on("GET /v2/a/b/blobs/sha256:cfg", "cfg")
+		    .applyTo(registry);
+		when(clients.getRegistryClient()).thenReturn(registry);
+		dockerConfig.setRegistryDirect(true);
+		try {
+			assertEquals(List.of("sha256:cfg", "sha256:lyr"), ImageArchive.getBlobs(self.getArtifactManifest("dockerartid")));
+			try (InputStream is = self.getArtifactBlob("dockerartid", "sha256:lyr")) {
+				assertEquals(10, is.read(buf));
+			}
+			try {
+				self.getArtifactBlob("dockerartid", "sha256:other");
+				fail();
+			} catch (NotFound nf) {
+				// expected case
+			}
+			try {
+				self.getArtifactManifest("someartid");
+				fail();
+			} catch (NotFound nf) {
+				// expected case
+			}
+			rangeHeaders.set(HttpHeaders.RANGE, "bytes=1024-");
+			rangeHeaders.set(HttpHeaders.IF_RANGE, "\"sha256:cfg\"");
+			ResponseEntity<byte[]> image = raw.exchange(FederationClient.ARTIFACT_URI, HttpMethod.GET, new HttpEntity<>(rangeHeaders), byte[].class, "dockerartid");
+			assertEquals(HttpStatus.PARTIAL_CONTENT, image.getStatusCode());
+			assertEquals("\"sha256:cfg\"", image.getHeaders().getETag());
+			long length = image.getBody().length + 1024;
+			assertEquals("bytes 1024-" + (length - 1) + "/" + length, image.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+			assertEquals("cfg", new String(image.getBody(), 512, 3));
+		} finally {
+			dockerConfig.setRegistryDirect(false);
+		}
 		docker.setDoPullTimeout(true);
 		try {
 			self.getArtifactContent("dockerartid");
@@ -325,6 +503,11 @@ public void testConfig() throws Exception {
 		try (InputStream is = self.getDocumentContent("somedocid")) {
 			assertEquals(4, is.read(buf));
 		}
+		for (int i = 0; contentExecutor.getActive() != 0 && i < 50; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(0, contentExecutor.getActive());
+		assertEquals(0, contentExecutor.getWaiting());
 		try {
 			self.getDocuments("somerevid", "badcatid");
 			fail();
@@ -335,6 +518,87 @@ public void testConfig() throws Exception {
 		assertNotNull(self.getArtifacts("somesolid", "altrevid"));
 	}
 
+	@Test
+	public void testPaging() throws Exception {
+		ICommonDataServiceRestClient cdsClient = clients.getCDSClient();
+		FederationConfig.Cds paging = new FederationConfig.Cds();
+		paging.setPageSize(1);
+		StringBuilder peers = new StringBuilder();
+		for (int parallelism: new int[] { 1, 2, 4 }) {
+			paging.setParallelism(parallelism);
+			peers.setLength(0);
+			Application.cdsEach(pr -> cdsClient.getPeers(pr), paging, peer -> peers.append(peer.getPeerId()));
+			assertEquals("1234", peers.toString());
+		}
+		AtomicInteger fetched = new AtomicInteger();
+		assertEquals("1", Application.cdsStream(pr -> { fetched.incrementAndGet(); return cdsClient.getPeers(pr); }, paging).findFirst().get().getPeerId());
+		assertEquals(1, fetched.get());
+		assertEquals(4, Application.cdsStream(pr -> cdsClient.getPeers(pr), paging).count());
+	}
+
+	private static boolean await(CountDownLatch latch) {
+		try {
+			return latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/*
+	 * Look something up, where the lookups of its parts, that are still
+	 * running, when it turns out not to exist, or fails, should be
+	 * cancelled.
+	 */
+	private void checkCancelled(String line, int parts, boolean fails, Supplier<Object> fcn) throws Exception {
+		CountDownLatch started = new CountDownLatch(parts);
+		CountDownLatch cancelled = new CountDownLatch(parts);
+		Consumer<ClientMocking.RequestInfo> hold = x -> {
+			started.countDown();
+			try {
+				Thread.sleep(5000);
+			} catch (InterruptedException ie) {
+				cancelled.countDown();
+			}
+		};
+		ICommonDataServiceRestClient cdsClient = CommonDataServiceRestClientImpl.getInstance("http://cds:999", ClientBase.buildRestTemplate("http://cds:999", new ClientConfig(), null, null));
+		ClientMocking mocking = (new ClientMocking())
+		    .on("GET /solution/lostsolid", "", x -> await(started))
+		    .on("GET /solution/someothersolid", xq("{ 'solutionId': 'someothersolid' }"))
+		    .on("GET /solution/lostsolid/revision", "[]", hold)
+		    .on("GET /solution/lostsolid/pic", "", hold)
+		    .on("GET /solution/ignored/revision/lostrevid", "", x -> await(started))
+		    .on("GET /solution/ignored/revision/somerevid", xq("{ 'solutionId': 'someothersolid', 'revisionId': 'somerevid' }"))
+		    .on("GET /revision/lostrevid/artifact", "[]", hold)
+		    .on("GET /revision/lostrevid/catalog/somecatid/descr", xq("{}"), hold)
+		    .on("GET /revision/lostrevid/catalog/somecatid/document", "[]", hold)
+		    .on("GET /revision/failrevid/artifact", "[]", hold)
+		    .on("GET /revision/failrevid/catalog/somecatid/descr", xq("{}"), hold)
+		    .on("GET /revision/failrevid/catalog/somecatid/document", "[]", hold)
+		    .on("GET /revision/somerevid/catalog/somecatid/descr", xq("{}"), hold)
+		    .on("GET /revision/somerevid/catalog/somecatid/document", "[]", hold)
+		    .on("GET /solution/someothersolid/pic", "", hold)
+		    .errorOn(ri -> ri.getLine().equals(line) && await(started), 500, "Internal Server Error");
+		mocking.applyTo(cdsClient);
+		when(clients.getCDSClient()).thenReturn(cdsClient);
+		try {
+			assertNull(fcn.get());
+			assertFalse(fails);
+		} catch (RuntimeException re) {
+			assertTrue(fails);
+		}
+		assertTrue("Lookups were not cancelled", cancelled.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLookupCancellation() throws Exception {
+		checkCancelled("none", 3, false, () -> catalogService.getRevision("lostrevid", "somecatid"));
+		checkCancelled("GET /solution/ignored/revision/failrevid", 3, true, () -> catalogService.getRevision("failrevid", "somecatid"));
+		checkCancelled("GET /revision/somerevid/artifact", 2, true, () -> catalogService.getRevision("somerevid", "somecatid"));
+		checkCancelled("none", 2, false, () -> catalogService.getSolution("lostsolid"));
+		checkCancelled("GET /solution/someothersolid/revision", 1, true, () -> catalogService.getSolution("someothersolid"));
+	}
+
 	@Test
 	public void testModelData() throws Exception {
 		FederationClient self = new FederationClient("https://localhost:" + port, getConfig("acumosa"));
@@ -20,10 +20,19 @@
  */
 package org.acumos.federation.gateway;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.entity.ContentType;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -35,6 +44,8 @@
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.server.LocalServerPort;
@@ -82,6 +93,7 @@
 	"nexus.name-separator=,",
 	"docker.registry-url=someregistry:9999",
 	"federation.operator=defuserid",
+	"federation.sync.parallelism=2",
 	"logstash.url=http://logstash:2345",
     }
 )
@@ -92,6 +104,9 @@ public class GatewayControllerTest {
 	@Autowired
 	private ServerConfig local;
 
+	@Autowired
+	private SubscriptionPoller poller;
+
 	@MockBean
 	private Clients clients;
 
@@ -99,8 +114,14 @@ public class GatewayControllerTest {
 
 	private final Consumer<ClientMocking.RequestInfo> count = x -> this.steps.countDown();
 
+	private final AtomicInteger unneeded = new AtomicInteger();
+
+	private final Consumer<ClientMocking.RequestInfo> wasted = x -> this.unneeded.incrementAndGet();
+
 	private SimulatedDockerClient docker;
 
+	private ISecurityVerificationClientService sv;
+
 	static ClientConfig anonConfig() {
 		ClientConfig ret = getConfig("bogus");
 		ret.getSsl().setKeyStore(null);
@@ -137,7 +158,11 @@ public void init() throws Exception {
 		    .on("GET /peer/sub/994", xq("{ 'subId': 994, 'peerId': 'somepeer', 'selector': '{ \\'catalogId\\': [ \\'x\\', true ] }', 'refreshInterval': 3600, 'userId': 'someUser' }"))
 		    .on("GET /peer/sub/995", xq("{ 'subId': 995, 'peerId': 'somepeer', 'selector': '}', 'refreshInterval': 3600, 'userId': 'someUser' }"))
 		    .on("GET /peer/sub/996", xq("{ 'subId': 996, 'peerId': 'somepeer', 'selector': '{}', 'refreshInterval': 3600, 'userId': 'someUser' }"))
+		    .on("GET /peer/sub/990", xq("{ 'subId': 990, 'peerId': 'somepeer', 'selector': '{ \\'catalogId\\': \\'thirdcatalog\\' }', 'refreshInterval': 3600, 'userId': 'someUser', 'processed': '2019-06-01T00:00:00Z' }"))
+		    .on("GET /peer/sub/989", xq("{ 'subId': 989, 'peerId': 'somepeer', 'selector': '{ \\'catalogId\\': \\'fourthcatalog\\' }', 'refreshInterval': 3600, 'userId': 'someUser', 'processed': '2019-06-01T00:00:00Z' }"))
 		    .on("PUT /peer/sub/999", "", count)
+		    .on("PUT /peer/sub/989", "", count)
+		    .on("PUT /peer/sub/990", "", count)
 		    .on("GET /catalog/solution?ctlg=somecatalog&page=0&size=100", xq("{ 'content': [], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 0 }"))
 		    .on("GET /catalog?page=0&size=100", xq("{ 'content': [], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 0 }"))
 		    .on("POST /catalog", "{}", count)
@@ -157,7 +182,14 @@ public void init() throws Exception {
 		    .on("POST /revision/revid1/catalog/somecatalog/document/docid1", "", count)
 		    .on("GET /catalog/solution?ctlg=firstcatalog&page=0&size=100", xq("{ 'content': [ ], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 0 }"))
 		    .on("GET /catalog/solution?ctlg=secondcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'cat2soln' } ], 'last': true, 'number': 1, 'size': 100, 'numberOfElements': 1 }"))
+		    .on("GET /catalog/solution?ctlg=thirdcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'cat3soln' } ], 'last': true, 'number': 1, 'size': 100, 'numberOfElements': 1 }"))
 		    .on("GET /solution/cat2soln", xq("{ 'solutionId': 'cat2soln' }"))
+		    .on("GET /catalog/solution?ctlg=fourthcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'cat4soln' } ], 'last': true, 'number': 1, 'size': 100, 'numberOfElements': 1 }"))
+		    .on("GET /solution/cat4soln/revision", xq("[ { 'revisionId': 'cat4rev', 'solutionId': 'cat4soln' } ]"))
+		    .on("GET /solution/cat4soln/pic", "asdf")
+		    .on("GET /revision/cat4rev/artifact", xq("[ { 'artifactId': 'artid4', 'filename': 'artfile4.arttype', 'version': 'artversion4', 'size': 10 } ]"))
+		    .on("GET /revision/cat4rev/catalog/fourthcatalog/descr", "", wasted)
+		    .on("GET /revision/cat4rev/catalog/fourthcatalog/document", "[]", wasted)
 		    .on("GET /solution/cat2soln/revision", xq("[ { 'revisionId': 'cat2rev', 'solutionId': 'cat2sol' }, { 'revisionId': 'cat2rev2', 'solutionId': 'cat2sol' } ]"))
 		    .on("GET /solution/cat2soln/pic", "asdf")
 		    .on("GET /solution/ignored/revision/cat2rev", xq("{ 'revisionId': 'cat2rev', 'solutionId': 'cat2sol' }"))
@@ -200,15 +232,24 @@ public void init() throws Exception {
 		    .on("GET /peers", xq("{ 'content': [{}, {}]}"))
 		    .on("POST /peer/register", xq("{ 'content': {}}"))
 		    .on("GET /solutions?catalogId=somecatalog", xq("{ 'content': [ { 'solutionId': 'somesolution' } ]}"))
+		    .on("GET /solutions?catalogId=somecatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'somesolution' } ]}"))
 		    .on("GET /solutions/somesolution", xq("{ 'content': { 'picture': 'YXNkZg==', 'revisions': [ { 'revisionId': 'revid1' } ] }}"))
+		    .on("GET /solutions/somesolution?picture=false", xq("{ 'content': { 'pictureDigest': 'sha256:f0e4c2f76c58916ec258f246851bea091d14d4247a2fc3e18694461b1816e13b', 'revisions': [ { 'revisionId': 'revid1' } ] }}"))
+		    .on("GET /solutions/somesolution/picture", "asdf", ContentType.APPLICATION_OCTET_STREAM, count)
 		    .on("GET /solutions/somesolution/revisions/revid1?catalogId=somecatalog", xq("{ 'content': { 'solutionId': 'somesolution', 'revisionId': 'revid1', 'documents': [ { 'documentId': 'docid1', 'filename': 'docfile.doctype', 'version': 'docversion' } ], 'artifacts': [ { 'artifactId': 'artid1', 'name': 'somename', 'filename': 'someimage', 'version': 'someversion', 'artifactTypeCode': 'DI', 'description': 'thisimage:thistag' } ], 'revCatDescription': { 'revisionId': 'revid1', 'catalogId': 'somecatalog', 'description': 'some description' }}}"))
 		    .on("GET /artifacts/artid1/content", "Artifact Content")
 		    .on("GET /artifacts/artid2/content", "Artifact Content 2")
 		    .on("GET /documents/docid1/content", "Document Content")
 		    .on("GET /documents/docid2/content", "Document Content 2")
-		    .on("GET /solutions?catalogId=firstcatalog", xq("{ 'content': [ ]}"))
-		    .on("GET /solutions?catalogId=secondcatalog", xq("{ 'content': [ { 'solutionId': 'cat2soln' } ]}"))
-		    .on("GET /solutions/cat2soln", xq("{ 'content': { 'solutionId': 'cat2soln', 'picture': 'YXNkZg==', 'revisions': [ { 'revisionId': 'cat2rev' }, { 'revisionId': 'cat2rev2' } ], 'tags': [ { 'tag': 'tag1' } ] }}"))
+		    .on("GET /solutions?catalogId=firstcatalog&page=0&size=100", xq("{ 'content': [ ]}"))
+		    .on("GET /solutions?catalogId=secondcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'cat2soln' } ]}"))
+		    .on("GET /solutions?catalogId=thirdcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'cat3soln' } ]}"))
+		    .on("GET /changes?catalogId=thirdcatalog&since=2019-05-31T23:55:00Z", xq("{ 'content': [ ]}"))
+		    .on("GET /changes?catalogId=fourthcatalog&since=2019-05-31T23:55:00Z", xq("{ 'content': [ { 'solutionId': 'cat4soln', 'revisions': [ { 'revisionId': 'cat4rev' } ] } ]}"))
+		    .on("GET /solutions?catalogId=fourthcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'cat4soln' } ]}"))
+		    .on("GET /solutions/cat4soln?picture=false", xq("{ 'content': { 'solutionId': 'cat4soln', 'pictureDigest': 'sha256:f0e4c2f76c58916ec258f246851bea091d14d4247a2fc3e18694461b1816e13b', 'revisions': [ { 'revisionId': 'cat4rev' } ] }}"))
+		    .on("GET /solutions/cat4soln/revisions/cat4rev?catalogId=fourthcatalog", xq("{ 'content': { 'solutionId': 'cat4soln', 'revisionId': 'cat4rev', 'revCatDescription': { 'catalogId': 'fourthcatalog', 'revisionId': 'cat4rev', 'description': 'description 4', 'modified': '2019-01-01T00:00:00Z' }, 'documents': [ { 'documentId': 'docid4', 'filename': 'docfile4.doctype', 'version': 'docversion4', 'modified': '2019-01-01T00:00:00Z' } ], 'artifacts': [ { 'artifactId': 'artid4', 'filename': 'artfile4.arttype', 'version': 'artversion4', 'size': 10, 'modified': '2019-06-02T00:00:00Z' } ] }}"))
+		    .on("GET /solutions/cat2soln?picture=false", xq("{ 'content': { 'solutionId': 'cat2soln', 'pictureDigest': 'sha256:f0e4c2f76c58916ec258f246851bea091d14d4247a2fc3e18694461b1816e13b', 'revisions': [ { 'revisionId': 'cat2rev' }, { 'revisionId': 'cat2rev2' } ], 'tags': [ { 'tag': 'tag1' } ] }}"))
 		    .on("GET /solutions/cat2soln/revisions/cat2rev?catalogId=secondcatalog", xq("{ 'content': { 'solutionId': 'cat2soln', 'revisionId': 'cat2rev', 'documents': [ { 'documentId': 'docid2', 'filename': 'docfile2.doctype', 'version': 'docversionB' } ], 'artifacts': [ { 'artifactId': 'artid2', 'filename': 'artfile2.arttype', 'version': 'artversion2B' } ] }}"))
 		    .on("GET /solutions/cat2soln/revisions/cat2rev2?catalogId=secondcatalog", xq("{ 'content': { 'solutionId': 'cat2soln', 'revisionId': 'cat2rev2', 'revCatDescription': { 'catalogId': 'secondcatalog', 'revisionId': 'cat2rev2', 'description': 'description B' }, 'documents': [  ], 'artifacts': [ ] }}"))
 		    .applyTo(fedClient);
@@ -217,7 +258,7 @@ public void init() throws Exception {
 		docker = new SimulatedDockerClient();
 		when(clients.getDockerClient()).thenReturn(docker.getClient());
 
-		ISecurityVerificationClientService sv = mock(ISecurityVerificationClientService.class);
+		sv = mock(ISecurityVerificationClientService.class);
 		when (clients.getSVClient()).thenReturn(sv);
 	}
 
@@ -273,15 +314,19 @@ public void testConfig() throws Exception {
 		docker.clearImages();
 		docker.addImage("imageid1", "tagA:1", "tagB:2");
 		docker.addImage("imageid2", "tagX:1", "thisimage:thistag");
-		steps = new CountDownLatch(12 + 1);
+		steps = new CountDownLatch(15 + 1);
 		self.triggerPeerSubscription("somepeer", 992);
 		self.triggerPeerSubscription("somepeer", 993);
 		self.triggerPeerSubscription("somepeer", 994);
 		self.triggerPeerSubscription("somepeer", 995);
 		self.triggerPeerSubscription("somepeer", 996);
 		self.triggerPeerSubscription("somepeer", 999);
+		self.triggerPeerSubscription("somepeer", 990);
+		self.triggerPeerSubscription("somepeer", 989);
 		steps.await(2, TimeUnit.SECONDS);
 		assertEquals("Incomplete steps remain", 0, steps.getCount() - 1);
+		assertEquals("Unchanged description and documents were fetched", 0, unneeded.get());
+		verify(sv, timeout(5000)).securityVerificationScan("somesolution", "revid1", "created", "someUser");
 	}
 
 	@Test
@@ -382,6 +427,136 @@ public void testUpdateParamsWithPeer() throws Exception {
 		}
 	}
 
+	/*
+	 * Wait, in a mock's action, for a latch, failing the request if it
+	 * doesn't open in time.
+	 */
+	private static boolean await(CountDownLatch latch) {
+		try {
+			return latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static ICommonDataServiceRestClient syncCDS(ClientMocking mocking, long subId, String catalogId) {
+		ICommonDataServiceRestClient ret = CommonDataServiceRestClientImpl.getInstance("http://cds:999", ClientBase.buildRestTemplate("http://cds:999", new ClientConfig(), null, null));
+		mocking
+		    .on("GET /peer/search?subjectName=gateway.acumosa.org&_j=a&page=0&size=100", xq("{ 'content': [ {'peerId': 'acumosa', 'subjectName': 'gateway.acumosa.org', 'statusCode': 'AC', 'self': true } ], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 1 }"))
+		    .on("GET /peer/somepeer", xq("{ 'peerId': 'somepeer', 'apiUrl': 'https://somepeer.org:999'}"))
+		    .on("GET /peer/sub/" + subId, xq("{ 'subId': " + subId + ", 'peerId': 'somepeer', 'selector': '{ \\'catalogId\\': \\'" + catalogId + "\\' }', 'userId': 'someUser' }"))
+		    .applyTo(ret);
+		return ret;
+	}
+
+	@Test
+	public void testParallelSolutions() throws Exception {
+		GatewayClient self = new GatewayClient("https://localhost:" + port, getConfig("acumosa"));
+		String solution = "{ 'content': { 'solutionId': '%s', 'pictureDigest': 'sha256:f0e4c2f76c58916ec258f246851bea091d14d4247a2fc3e18694461b1816e13b', 'revisions': [ %s ] }}";
+		CountDownLatch both = new CountDownLatch(2);
+		AtomicInteger overlapped = new AtomicInteger();
+		Consumer<ClientMocking.RequestInfo> meet = x -> {
+			both.countDown();
+			if (await(both)) {
+				overlapped.incrementAndGet();
+			}
+		};
+		List<String> revisions = Collections.synchronizedList(new ArrayList<>());
+		List<String> notes = Collections.synchronizedList(new ArrayList<>());
+		steps = new CountDownLatch(4);
+
+		ClientMocking cdsMocking = (new ClientMocking())
+		    .on("GET /catalog/solution?ctlg=parcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'par1' }, { 'solutionId': 'par2' }, { 'solutionId': 'par3' } ], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 3 }"))
+		    .on("GET /solution/par1/revision", xq("[ { 'revisionId': 'par1a', 'solutionId': 'par1' }, { 'revisionId': 'par1b', 'solutionId': 'par1' }, { 'revisionId': 'par1c', 'solutionId': 'par1' } ]"))
+		    .on("GET /solution/par2/revision", xq("[ { 'revisionId': 'par2a', 'solutionId': 'par2' } ]"))
+		    .on("GET /solution/par1/pic", "asdf")
+		    .on("GET /solution/par2/pic", "asdf")
+		    .on("GET /revision/par1a/catalog/parcatalog/descr", "")
+		    .on("GET /revision/par1b/catalog/parcatalog/descr", "")
+		    .on("GET /revision/par1c/catalog/parcatalog/descr", "")
+		    .on("GET /revision/par2a/catalog/parcatalog/descr", "")
+		    .on("POST /notif", xq("{ 'notificationId': 'noteid' }"), ri -> {
+			try {
+				notes.add(new ObjectMapper().readTree(ri.getBody()).path("message").asText());
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    })
+		    .on("POST /notif/noteid/user/someUser", "", count);
+		when(clients.getCDSClient()).thenReturn(syncCDS(cdsMocking, 987, "parcatalog"));
+
+		FederationClient fedClient = new FederationClient("https://peer:999", new ClientConfig());
+		(new ClientMocking())
+		    .on("GET /solutions?catalogId=parcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'par1' }, { 'solutionId': 'par2' }, { 'solutionId': 'par3' } ]}"))
+		    .on("GET /solutions/par1?picture=false", xq(String.format(solution, "par1", "{ 'revisionId': 'par1a' }, { 'revisionId': 'par1b' }, { 'revisionId': 'par1c' }")), meet)
+		    .on("GET /solutions/par2?picture=false", xq(String.format(solution, "par2", "{ 'revisionId': 'par2a' }")), meet)
+		    .errorOn("GET /solutions/par3?picture=false", 500, "Internal Server Error")
+		    .on("GET /solutions/par1/revisions/par1a?catalogId=parcatalog", xq("{ 'content': { 'solutionId': 'par1', 'revisionId': 'par1a' }}"), x -> revisions.add("par1a"))
+		    .on("GET /solutions/par1/revisions/par1b?catalogId=parcatalog", xq("{ 'content': { 'solutionId': 'par1', 'revisionId': 'par1b' }}"), x -> revisions.add("par1b"))
+		    .on("GET /solutions/par1/revisions/par1c?catalogId=parcatalog", xq("{ 'content': { 'solutionId': 'par1', 'revisionId': 'par1c' }}"), x -> revisions.add("par1c"))
+		    .on("GET /solutions/par2/revisions/par2a?catalogId=parcatalog", xq("{ 'content': { 'solutionId': 'par2', 'revisionId': 'par2a' }}"))
+		    .applyTo(fedClient);
+		when(clients.getFederationClient(any(String.class))).thenReturn(fedClient);
+
+		self.triggerPeerSubscription("somepeer", 987);
+		steps.await(10, TimeUnit.SECONDS);
+		assertEquals("Incomplete steps remain", 0, steps.getCount());
+		assertEquals("Solutions were not checked at the same time", 2, overlapped.get());
+		assertEquals(Arrays.asList("par1a", "par1b", "par1c"), revisions);
+		assertTrue(notes.get(0), notes.get(0).startsWith("Error occurred while fetching remote solution: "));
+		assertEquals(Arrays.asList(
+		    "While processing solution par3, an error occurred: fetching remote solution",
+		    "While processing catalog parcatalog from peer somepeer, an error occurred: processing solution par3",
+		    "While processing subscription 987 for peer somepeer, an error occurred: processing catalog parcatalog from peer somepeer"
+		), notes.subList(1, notes.size()));
+	}
+
+	@Test
+	public void testCancelQueuedSolutions() throws Exception {
+		GatewayClient self = new GatewayClient("https://localhost:" + port, getConfig("acumosa"));
+		String solution = "{ 'content': { 'solutionId': '%s', 'pictureDigest': 'sha256:f0e4c2f76c58916ec258f246851bea091d14d4247a2fc3e18694461b1816e13b', 'revisions': [ ] }}";
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(2);
+		Consumer<ClientMocking.RequestInfo> hold = x -> {
+			started.countDown();
+			await(release);
+		};
+		AtomicBoolean cancelling = new AtomicBoolean();
+		AtomicInteger queued = new AtomicInteger();
+		AtomicInteger processed = new AtomicInteger();
+
+		ClientMocking cdsMocking = (new ClientMocking())
+		    .on(ri -> cancelling.get() && ri.getLine().equals("GET /peer?page=0&size=100"), xq("{ 'content': [ { 'peerId': '1', 'self': true } ], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 1 }").getBytes(), ContentType.APPLICATION_JSON, null)
+		    .on("GET /catalog/solution?ctlg=cancelcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'can1' }, { 'solutionId': 'can2' } ], 'last': true, 'number': 0, 'size': 100, 'numberOfElements': 2 }"))
+		    .on("GET /solution/can1/revision", xq("[ { 'revisionId': 'can1a', 'solutionId': 'can1' } ]"))
+		    .on("GET /solution/can2/revision", xq("[ { 'revisionId': 'can2a', 'solutionId': 'can2' } ]"))
+		    .on("GET /solution/can1/pic", "asdf", x -> finished.countDown())
+		    .on("GET /solution/can2/pic", "asdf", x -> finished.countDown())
+		    .on("PUT /peer/sub/986", "", x -> processed.incrementAndGet());
+		when(clients.getCDSClient()).thenReturn(syncCDS(cdsMocking, 986, "cancelcatalog"));
+
+		FederationClient fedClient = new FederationClient("https://peer:999", new ClientConfig());
+		(new ClientMocking())
+		    .on("GET /solutions?catalogId=cancelcatalog&page=0&size=100", xq("{ 'content': [ { 'solutionId': 'can1' }, { 'solutionId': 'can2' }, { 'solutionId': 'can3' }, { 'solutionId': 'can4' } ]}"))
+		    .on("GET /solutions/can1?picture=false", xq(String.format(solution, "can1")), hold)
+		    .on("GET /solutions/can2?picture=false", xq(String.format(solution, "can2")), hold)
+		    .on("GET /solutions/can3?picture=false", xq(String.format(solution, "can3")), x -> queued.incrementAndGet())
+		    .on("GET /solutions/can4?picture=false", xq(String.format(solution, "can4")), x -> queued.incrementAndGet())
+		    .applyTo(fedClient);
+		when(clients.getFederationClient(any(String.class))).thenReturn(fedClient);
+
+		self.triggerPeerSubscription("somepeer", 986);
+		assertTrue("Solutions were not started", started.await(5, TimeUnit.SECONDS));
+		cancelling.set(true);
+		poller.checkPeerJobs();
+		release.countDown();
+		assertTrue("Started solutions did not finish", finished.await(5, TimeUnit.SECONDS));
+		Thread.sleep(500);
+		assertEquals("Queued solutions were checked", 0, queued.get());
+		assertEquals("Cancelled subscription was marked processed", 0, processed.get());
+	}
 
 	@Test
 	public void testSwagger() throws Exception {
@@ -0,0 +1,320 @@
+/*-
+ * ===============LICENSE_START=======================================================
+ * Acumos
+ * ===================================================================================
+ * Copyright (C) 2019 AT&T Intellectual Property & Tech Mahindra. All rights reserved.
+ * ===================================================================================
+ * This Acumos software file is distributed by AT&T and Tech Mahindra
+ * under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ===============LICENSE_END=========================================================
+ */
+package org.acumos.federation.gateway;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.google.common.io.ByteStreams;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.http.entity.ContentType;
+
+import org.acumos.federation.client.config.ClientConfig;
+import org.acumos.federation.client.test.ClientMocking;
+import static org.acumos.federation.client.test.ClientMocking.xq;
+
+public class ImageArchiveTest {
+	private static final String REGISTRY = "registry.example.org:5000";
+	private static final String CONFIG = "{\"rootfs\":{}}";
+
+	private static String sha256(byte[] data) throws Exception {
+		StringBuilder ret = new StringBuilder("sha256:");
+		for (byte b: MessageDigest.getInstance("SHA-256").digest(data)) {
+			ret.append(String.format("%02x", b & 0xff));
+		}
+		return ret.toString();
+	}
+
+	private static String hex(String digest) {
+		return digest.substring("sha256:".length());
+	}
+
+	private static byte[] gzip(byte[] data) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+			gz.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static Map<String, byte[]> untar(InputStream is) throws Exception {
+		Map<String, byte[]> ret = new HashMap<>();
+		try (TarArchiveInputStream tar = new TarArchiveInputStream(is)) {
+			TarArchiveEntry entry;
+			while ((entry = tar.getNextTarEntry()) != null) {
+				ret.put(entry.getName(), ByteStreams.toByteArray(tar));
+			}
+		}
+		return ret;
+	}
+
+	/*
+	 * Set up a registry holding one image, with one layer.
+	 */
+	private static RegistryClient source(byte[] layer) throws Exception {
+		String configDigest = sha256(CONFIG.getBytes());
+		String layerDigest = sha256(layer);
+		RegistryClient ret = new RegistryClient(REGISTRY, new ClientConfig());
+		(new ClientMocking())
+		    .on("GET /v2/some/repo/manifests/v1", xq("{ 'schemaVersion': 2, 'config': { 'digest': '" + configDigest + "', 'size': " + CONFIG.length() + " }, 'layers': [ { 'digest': '" + layerDigest + "', 'size': " + layer.length + " } ] }"))
+		    .on("GET /v2/some/repo/blobs/" + configDigest, CONFIG)
+		    .on(ri -> ri.getLine().equals("GET /v2/some/repo/blobs/" + layerDigest), layer, ContentType.APPLICATION_OCTET_STREAM, null)
+		    .applyTo(ret);
+		return ret;
+	}
+
+	@Test
+	public void testRanges() throws Exception {
+		byte[] layer = "some layer".getBytes();
+		ImageArchive.Archive archive = ImageArchive.describe(source(layer), "some/repo", "v1", "myimage:mytag");
+		assertEquals(sha256(CONFIG.getBytes()), archive.getImageId());
+		byte[] whole = ByteStreams.toByteArray(archive.open(0));
+		assertEquals(whole.length, archive.getLength());
+		for (int offset: new int[] { 1, 512, 600, 1024, whole.length - 1 }) {
+			assertArrayEquals(Arrays.copyOfRange(whole, offset, whole.length), ByteStreams.toByteArray(archive.open(offset)));
+		}
+
+		/*
+		 * Layers before the start of the range aren't fetched.
+		 */
+		String configDigest = sha256(CONFIG.getBytes());
+		RegistryClient registry = new RegistryClient(REGISTRY, new ClientConfig());
+		(new ClientMocking())
+		    .on("GET /v2/some/repo/manifests/v1", xq("{ 'schemaVersion': 2, 'config': { 'digest': '" + configDigest + "', 'size': " + CONFIG.length() + " }, 'layers': [ { 'digest': '" + sha256(layer) + "', 'size': " + layer.length + " } ] }"))
+		    .on("GET /v2/some/repo/blobs/" + configDigest, CONFIG)
+		    .errorOn("GET /v2/some/repo/blobs/" + sha256(layer), 500, "Internal Server Error")
+		    .applyTo(registry);
+		assertArrayEquals(Arrays.copyOfRange(whole, 1024, whole.length), ByteStreams.toByteArray(ImageArchive.describe(registry, "some/repo", "v1", "myimage:mytag").open(1024)));
+	}
+
+	@Test
+	public void testArchive() throws Exception {
+		byte[] layer = "some layer".getBytes();
+		RegistryClient registry = source(layer);
+		assertEquals("some/repo", registry.getRepository(REGISTRY + "/some/repo:v1"));
+		assertEquals(null, registry.getRepository("elsewhere.org/some/repo:v1"));
+		assertEquals("v1", RegistryClient.getTag(REGISTRY + "/some/repo:v1"));
+		assertEquals(sha256(CONFIG.getBytes()), ImageArchive.getImageId(registry, "some/repo", "v1"));
+		Map<String, byte[]> files = untar(ImageArchive.read(registry, "some/repo", "v1", "myimage:mytag"));
+		assertEquals("some layer", new String(files.get(hex(sha256(layer)) + "/layer.tar")));
+		assertEquals(CONFIG, new String(files.get(hex(sha256(CONFIG.getBytes())) + ".json")));
+		JsonNode manifest = new ObjectMapper().readTree(files.get("manifest.json")).path(0);
+		assertEquals("myimage:mytag", manifest.path("RepoTags").path(0).asText());
+		assertEquals(hex(sha256(layer)) + "/layer.tar", manifest.path("Layers").path(0).asText());
+
+		/*
+		 * The layer isn't compressed, so it gets compressed as it is
+		 * sent, and the configuration is new.
+		 */
+		RegistryClient target = new RegistryClient(REGISTRY, new ClientConfig());
+		Map<String, byte[]> uploads = new HashMap<>();
+		byte[][] written = new byte[1][];
+		(new ClientMocking())
+		    .errorOn(ri -> ri.getMethod().equals("HEAD"), 404, "Not Found")
+		    .on("POST /v2/other/repo/blobs/uploads/", "").withHeader("Location", "/v2/other/repo/blobs/uploads/xyz?_state=1")
+		    .on("PATCH /v2/other/repo/blobs/uploads/xyz?_state=1", "", ri -> {
+			try {
+				uploads.put("patch" + uploads.size(), ri.getBody());
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    }).withHeader("Location", "http://" + REGISTRY + "/v2/other/repo/blobs/uploads/xyz?_state=2")
+		    .on(ri -> ri.getLine().startsWith("PUT /v2/other/repo/blobs/uploads/xyz?_state=2&digest=sha256:"), "".getBytes(), ContentType.APPLICATION_OCTET_STREAM, null)
+		    .on("PUT /v2/other/repo/manifests/v2", "", ri -> {
+			try {
+				written[0] = ri.getBody();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    })
+		    .applyTo(target);
+		String imageId;
+		try (InputStream is = ImageArchive.read(registry, "some/repo", "v1", "myimage:mytag")) {
+			imageId = ImageArchive.write(target, "other/repo", "v2", is);
+		}
+		assertEquals(sha256(CONFIG.getBytes()), imageId);
+		assertEquals(2, uploads.size());
+		byte[] compressed = uploads.get("patch0");
+		assertEquals("some layer", new String(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)))));
+		assertEquals(CONFIG, new String(uploads.get("patch1")));
+		assertNotNull(written[0]);
+		manifest = new ObjectMapper().readTree(written[0]);
+		assertEquals(RegistryClient.MANIFEST_TYPE, manifest.path("mediaType").asText());
+		assertEquals(imageId, manifest.path("config").path("digest").asText());
+		assertEquals(sha256(compressed), manifest.path("layers").path(0).path("digest").asText());
+		assertEquals(compressed.length, manifest.path("layers").path(0).path("size").asLong());
+	}
+
+	@Test
+	public void testSkipLayers() throws Exception {
+		byte[] layer = gzip("some layer".getBytes());
+		RegistryClient registry = source(layer);
+		String layerDigest = sha256(layer);
+		RegistryClient target = new RegistryClient(REGISTRY, new ClientConfig());
+		byte[][] written = new byte[1][];
+		(new ClientMocking())
+		    .on(ri -> ri.getLine().equals("HEAD /v2/other/repo/blobs/" + layerDigest), layer, ContentType.APPLICATION_OCTET_STREAM, null)
+		    .on("HEAD /v2/other/repo/blobs/" + sha256(CONFIG.getBytes()), CONFIG)
+		    .on("PUT /v2/other/repo/manifests/v2", "", ri -> {
+			try {
+				written[0] = ri.getBody();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    })
+		    .applyTo(target);
+		try (InputStream is = ImageArchive.read(registry, "some/repo", "v1", "myimage:mytag")) {
+			ImageArchive.write(target, "other/repo", "v2", is);
+		}
+		JsonNode manifest = new ObjectMapper().readTree(written[0]);
+		assertEquals(sha256(layer), manifest.path("layers").path(0).path("digest").asText());
+		assertEquals(layer.length, manifest.path("layers").path(0).path("size").asLong());
+		assertTrue(manifest.path("layers").size() == 1);
+	}
+
+	private static void tarFile(TarArchiveOutputStream tar, String name, byte[] content) throws Exception {
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(content.length);
+		tar.putArchiveEntry(entry);
+		tar.write(content);
+		tar.closeArchiveEntry();
+	}
+
+	@Test
+	public void testRepeatedLayer() throws Exception {
+		byte[] layer = gzip("some layer".getBytes());
+		String layerDigest = sha256(layer);
+		String layerFile = hex(layerDigest) + "/layer.tar";
+		String linkFile = hex(sha256("other".getBytes())) + "/layer.tar";
+		String configFile = hex(sha256(CONFIG.getBytes())) + ".json";
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(archive)) {
+			tarFile(tar, "manifest.json", xq("[ { 'Config': '" + configFile + "', 'RepoTags': [ 'myimage:mytag' ], 'Layers': [ '" + layerFile + "', '" + linkFile + "' ] } ]").getBytes());
+			tarFile(tar, configFile, CONFIG.getBytes());
+			TarArchiveEntry link = new TarArchiveEntry(linkFile, TarArchiveEntry.LF_SYMLINK);
+			link.setLinkName("../" + layerFile);
+			tar.putArchiveEntry(link);
+			tar.closeArchiveEntry();
+			tarFile(tar, layerFile, layer);
+		}
+		RegistryClient target = new RegistryClient(REGISTRY, new ClientConfig());
+		byte[][] written = new byte[1][];
+		(new ClientMocking())
+		    .on(ri -> ri.getLine().equals("HEAD /v2/other/repo/blobs/" + layerDigest), layer, ContentType.APPLICATION_OCTET_STREAM, null)
+		    .on("HEAD /v2/other/repo/blobs/" + sha256(CONFIG.getBytes()), CONFIG)
+		    .on("PUT /v2/other/repo/manifests/v2", "", ri -> {
+			try {
+				written[0] = ri.getBody();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    })
+		    .applyTo(target);
+		assertEquals(sha256(CONFIG.getBytes()), ImageArchive.write(target, "other/repo", "v2", new ByteArrayInputStream(archive.toByteArray())));
+		JsonNode manifest = new ObjectMapper().readTree(written[0]);
+		assertEquals(2, manifest.path("layers").size());
+		assertEquals(layerDigest, manifest.path("layers").path(0).path("digest").asText());
+		assertEquals(layerDigest, manifest.path("layers").path(1).path("digest").asText());
+	}
+
+	@Test
+	public void testLayers() throws Exception {
+		byte[] layer = gzip("some layer".getBytes());
+		String layerDigest = sha256(layer);
+		String configDigest = sha256(CONFIG.getBytes());
+		byte[] manifest = xq("{ 'schemaVersion': 2, 'config': { 'digest': '" + configDigest + "' }, 'layers': [ { 'digest': '" + layerDigest + "' } ] }").getBytes();
+		assertEquals(Arrays.asList(configDigest, layerDigest), ImageArchive.getBlobs(manifest));
+		RegistryClient target = new RegistryClient(REGISTRY, new ClientConfig());
+		Map<String, byte[]> uploads = new HashMap<>();
+		byte[][] written = new byte[1][];
+		(new ClientMocking())
+		    .on("HEAD /v2/other/repo/blobs/" + configDigest, CONFIG)
+		    .errorOn(ri -> ri.getMethod().equals("HEAD"), 404, "Not Found")
+		    .on("POST /v2/other/repo/blobs/uploads/", "").withHeader("Location", "/v2/other/repo/blobs/uploads/xyz")
+		    .on("PATCH /v2/other/repo/blobs/uploads/xyz", "", ri -> {
+			try {
+				uploads.put("patch" + uploads.size(), ri.getBody());
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    })
+		    .on(ri -> ri.getLine().startsWith("PUT /v2/other/repo/blobs/uploads/xyz?digest=sha256:"), "".getBytes(), ContentType.APPLICATION_OCTET_STREAM, null)
+		    .on("PUT /v2/other/repo/manifests/v2", "", ri -> {
+			try {
+				written[0] = ri.getBody();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		    })
+		    .applyTo(target);
+		Map<String, byte[]> blobs = new HashMap<>();
+		blobs.put(layerDigest, layer);
+		assertEquals(configDigest, ImageArchive.write(target, "other/repo", "v2", manifest, digest -> new ByteArrayInputStream(blobs.get(digest))));
+		assertEquals(1, uploads.size());
+		assertEquals(layerDigest, sha256(uploads.get("patch0")));
+		assertEquals(new String(manifest), new String(written[0]));
+		blobs.put(layerDigest, "not the layer".getBytes());
+		try {
+			ImageArchive.write(target, "other/repo", "v2", manifest, digest -> new ByteArrayInputStream(blobs.get(digest)));
+			fail();
+		} catch (IOException ioe) {
+			// expected case
+		}
+	}
+
+	@Test
+	public void testScanner() throws Exception {
+		RegistryClient registry = source("some layer".getBytes());
+		ImageArchive.Scanner archive = new ImageArchive.Scanner(ImageArchive.read(registry, "some/repo", "v1", "myimage:mytag"));
+		assertNull(archive.getImageId("myimage:mytag"));
+		ByteStreams.exhaust(archive);
+		assertEquals(sha256(CONFIG.getBytes()), archive.getImageId("myimage:mytag"));
+		archive = new ImageArchive.Scanner(ImageArchive.read(registry, "some/repo", "v1", "myimage:mytag"));
+		while (archive.read() != -1) {
+		}
+		assertEquals(sha256(CONFIG.getBytes()), archive.getImageId("othertag"));
+		archive = new ImageArchive.Scanner(new ByteArrayInputStream(new byte[2048]));
+		ByteStreams.exhaust(archive);
+		assertNull(archive.getImageId("myimage:mytag"));
+	}
+}
@@ -22,14 +22,20 @@
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import com.github.dockerjava.api.DockerClient;
 
+import com.google.common.io.ByteStreams;
+
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.ArgumentMatchers.any;
 
 import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectImageCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
 import com.github.dockerjava.api.command.ListImagesCmd;
 import com.github.dockerjava.api.command.LoadImageCmd;
 import com.github.dockerjava.api.command.PullImageCmd;
@@ -37,6 +43,7 @@
 import com.github.dockerjava.api.command.RemoveImageCmd;
 import com.github.dockerjava.api.command.SaveImageCmd;
 import com.github.dockerjava.api.command.TagImageCmd;
+import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.AuthConfig;
 import com.github.dockerjava.api.model.Image;
 import com.github.dockerjava.api.model.PullResponseItem;
@@ -49,7 +56,7 @@ public class SimulatedDockerClient {
 	private boolean doPullTimeout;
 	private ArrayList<Image> images = new ArrayList<>();
 
-	public SimulatedDockerClient() {
+	public SimulatedDockerClient() throws Exception {
 		PullResponseItem pullResponseItem = mock(PullResponseItem.class);
 		when (pullResponseItem.getStatus()).thenReturn("some status");
 		when (pullResponseItem.isPullSuccessIndicated()).thenReturn(true);
@@ -69,8 +76,6 @@ public SimulatedDockerClient() {
 		SaveImageCmd saveImageCmd = mock(SaveImageCmd.class);
 		when (saveImageCmd.exec()).thenAnswer(invoke -> new ByteArrayInputStream(this.saveResult));
 
-		LoadImageCmd loadImageCmd = mock(LoadImageCmd.class);
-
 		ListImagesCmd listImagesCmd = mock(ListImagesCmd.class);
 		when (listImagesCmd.exec()).thenAnswer(invoke -> this.images);
 
@@ -80,6 +85,7 @@ public SimulatedDockerClient() {
 		when (removeImageCmd.withForce(true)).thenReturn(removeImageCmd);
 
 		PushImageResultCallback pushImageResultCallback = mock(PushImageResultCallback.class);
+		when (pushImageResultCallback.awaitCompletion(any(Long.class), any(TimeUnit.class))).thenReturn(true);
 
 		PushImageCmd pushImageCmd = mock(PushImageCmd.class);
 		when (pushImageCmd.withTag(any(String.class))).thenReturn(pushImageCmd);
@@ -89,11 +95,24 @@ public SimulatedDockerClient() {
 		client = mock(DockerClient.class);
 		when (client.pullImageCmd(any(String.class))).thenReturn(pullImageCmd);
 		when (client.saveImageCmd(any(String.class))).thenReturn(saveImageCmd);
-		when (client.loadImageCmd(any(InputStream.class))).thenReturn(loadImageCmd);
+		when (client.loadImageCmd(any(InputStream.class))).thenAnswer(invoke -> {
+			InputStream is = (InputStream)invoke.getArguments()[0];
+			return mock(LoadImageCmd.class, x -> {
+				ByteStreams.exhaust(is);
+				return null;
+			});
+		});
 		when (client.listImagesCmd()).thenReturn(listImagesCmd);
 		when (client.tagImageCmd(any(String.class), any(String.class), any(String.class))).thenReturn(tagImageCmd);
 		when (client.removeImageCmd(any(String.class))).thenReturn(removeImageCmd);
 		when (client.pushImageCmd(any(String.class))).thenReturn(pushImageCmd);
+		when (client.inspectImageCmd(any(String.class))).thenAnswer(invoke -> {
+			String name = (String)invoke.getArguments()[0];
+			return mock(InspectImageCmd.class, x -> {
+				Image image = this.images.stream().filter(i -> Arrays.asList(i.getRepoTags()).contains(name)).findAny().orElseThrow(() -> new NotFoundException("No such image: " + name));
+				return new InspectImageResponse().withId(image.getId());
+			});
+		});
 	}
 
 	public DockerClient getClient() {